@@ -0,0 +1,459 @@
+/**
+ * A hash table that stores small maps as a flat array and only builds a real hash
+ * table once it grows.
+ *
+ * While the table holds no more than a threshold number of items (16 by default), the
+ * items live in a small array searched linearly, so there is no hashing, no bucket array
+ * and no per-item chain node.  Adding past the threshold moves the items into a
+ * ChainingHashTable.  Once deletions shrink it to half the threshold, the items move
+ * back into a flat array.  The gap between the two sizes keeps a table near the
+ * threshold from switching on every add and delete.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+public class AdaptiveHashTable<T> implements HashTable<T> {
+
+    public static final int DEFAULT_THRESHOLD = 16;
+
+    int tableSize;
+    int threshold;
+    int count;
+    KeyedItem<T> [] items;          //flat representation, null while hashed
+    ChainingHashTable<T> hashed;    //hashed representation, null while flat
+
+    /**
+     * Constructor
+     * @param size - size of the hash table used once the table grows past the threshold.
+     */
+    public AdaptiveHashTable(int size)
+    {
+        this(size, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Constructor
+     * @param size - size of the hash table used once the table grows past the threshold.
+     * @param threshold - largest number of items kept in the flat array.
+     */
+    public AdaptiveHashTable(int size, int threshold)
+    {
+        this.tableSize = size;
+        this.threshold = threshold;
+        this.items = new KeyedItem[threshold];
+    }
+
+    /**
+     * Returns true while items are kept in the flat array.
+     * @return true if flat, false if hashed
+     */
+    public boolean isFlat()
+    {
+        return hashed == null;
+    }
+
+    /**
+     * Returns the index of a key in the flat array.
+     * @param key - key to find
+     * @return index or -1 if not found.
+     */
+    int indexOf(Comparable key)
+    {
+        for (int i=0; i < count; i++) {
+            //Keys of different types (e.g. Integer and String) are never equal.
+            if ((items[i].key.getClass() == key.getClass()) && (key.compareTo(items[i].key) == 0))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Adds an item known not to be in the table, switching to the hashed
+     * representation if the flat array is full.
+     * @param item - item to add
+     * @return index of the item in the array or the hash table.
+     */
+    int insert(KeyedItem<T> item)
+    {
+        if (count < threshold) {
+            items[count] = item;
+            return count++;
+        }
+
+        //Flat array full, so move everything into a hash table.  The table is only
+        //switched over once every add has succeeded, so a failed add (e.g. keys of
+        //different types meeting in one chain) leaves the flat array as it was.
+        ChainingHashTable<T> table = new ChainingHashTable<>(tableSize);
+        for (int i=0; i < count; i++)
+            table.add(items[i]);
+        int index = table.add(item);
+
+        hashed = table;
+        items = null;
+        count = hashed.size();
+        return index;
+    }
+
+    /**
+     * Removes the item at an index of the flat array by moving the last item into its place.
+     * @param index - index to remove
+     * @return removed item
+     */
+    KeyedItem<T> removeAt(int index)
+    {
+        KeyedItem<T> removed = items[index];
+        items[index] = items[--count];
+        items[count] = null;
+        return removed;
+    }
+
+    /**
+     * Updates the count after an operation on the hash table and moves back to the
+     * flat array once the hash table has shrunk to half the threshold.
+     */
+    void checkShrink()
+    {
+        count = hashed.size();
+        if (count > threshold / 2)
+            return;
+
+        items = new KeyedItem[threshold];
+        int [] i = {0};
+        hashed.forEach(item -> items[i[0]++] = item);
+        hashed = null;
+    }
+
+    /**
+     * Returns the number of items in the table.
+     * @return number of items
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * Prints the items and their location in the table.
+     */
+    public void printTable()
+    {
+        if (hashed != null) {
+            hashed.printTable();
+            return;
+        }
+
+        System.out.println("Table Content:");
+        for (int i=0; i < count; i++)
+            System.out.println(i + " " + items[i]);
+    }
+
+    /**
+     * Performs an action on every item in the table.
+     * @param action - action to perform on each item
+     */
+    public void forEach(Consumer<KeyedItem<T>> action)
+    {
+        if (hashed != null) {
+            hashed.forEach(action);
+            return;
+        }
+
+        for (int i=0; i < count; i++)
+            action.accept(items[i]);
+    }
+
+    /**
+     * Adds an item to the table.
+     * -1 implies item not added because duplicate.
+     * @param item - item to add
+     * @return index of item added or -1 if error.
+     */
+    public int add(KeyedItem<T> item)
+    {
+        if (hashed != null) {
+            int index = hashed.add(item);
+            count = hashed.size();
+            return index;
+        }
+
+        if (indexOf(item.getKey()) >= 0) {
+            System.out.println("Item already in table.");
+            return -1;
+        }
+        return insert(item);
+    }
+
+    /**
+     * Deletes an item given a key and returns the item.
+     * @param key - key of item being deleted
+     * @return deleted item.
+     */
+    public KeyedItem<T> delete(Comparable key)
+    {
+        if (hashed != null) {
+            KeyedItem<T> removed = hashed.delete(key);
+            checkShrink();
+            return removed;
+        }
+
+        int index = indexOf(key);
+        if (index < 0) {
+            System.out.println("Item not in table.  No value deleted or returned.");
+            return null;
+        }
+        return removeAt(index);
+    }
+
+    /**
+     * Retrieves an item given a key.
+     * @param key - key of item being retrieved
+     * @return retrieved item.
+     */
+    public KeyedItem<T> get(Comparable key)
+    {
+        if (hashed != null)
+            return hashed.get(key);
+
+        int index = indexOf(key);
+        if (index < 0) {
+            System.out.println("Item not in table.  No value deleted or returned.");
+            return null;
+        }
+        return items[index];
+    }
+
+    /**
+     * Retrieves an item with a string key, given the key as any CharSequence
+     * so no String needs to be built.
+     * @param key - chars of the key
+     * @return retrieved item.
+     */
+    public KeyedItem<T> getByChars(CharSequence key)
+    {
+        if (hashed != null)
+            return hashed.getByChars(key);
+        return findString(key, null, null, 0, 0);
+    }
+
+    /**
+     * Retrieves an item with a string key, given the key as UTF-8 bytes.
+     * @param buf - bytes holding the key
+     * @param offset - index of the first byte
+     * @param length - number of bytes
+     * @return retrieved item.
+     */
+    public KeyedItem<T> getByUtf8(byte [] buf, int offset, int length)
+    {
+        if (hashed != null)
+            return hashed.getByUtf8(buf, offset, length);
+        return findString(null, buf, null, offset, offset + length);
+    }
+
+    /**
+     * Retrieves an item with a string key, given the key as the UTF-8 bytes between
+     * a buffer's position and limit.  The buffer's position is not changed.
+     * @param buf - buffer holding the key
+     * @return retrieved item.
+     */
+    public KeyedItem<T> getByUtf8(ByteBuffer buf)
+    {
+        if (hashed != null)
+            return hashed.getByUtf8(buf);
+        if (buf.hasArray())
+            return findString(null, buf.array(), null, buf.arrayOffset() + buf.position(), buf.arrayOffset() + buf.limit());
+        return findString(null, null, buf, buf.position(), buf.limit());
+    }
+
+    /**
+     * Searches the flat array for a string key given as chars or as UTF-8 bytes.
+     * @param chars - key as chars, or null if given as bytes
+     * @param arr - byte array holding the key, or null
+     * @param buf - buffer holding the key, or null
+     * @param start - index of the first byte
+     * @param end - index after the last byte
+     * @return retrieved item.
+     */
+    KeyedItem<T> findString(CharSequence chars, byte [] arr, ByteBuffer buf, int start, int end)
+    {
+        for (int i=0; i < count; i++) {
+            if ((items[i].key instanceof String)
+                    && Utf8Keys.matches((String) items[i].key, chars, arr, buf, start, end))
+                return items[i];
+        }
+        System.out.println("Item not in table.  No value deleted or returned.");
+        return null;
+    }
+
+    /**
+     * Associates a value with a key, replacing any existing value.
+     * @param key - key of the item
+     * @param value - value to store
+     * @return previous value or null if the key was not in the table.
+     * @throws NullPointerException if value is null.
+     */
+    public T put(Comparable key, T value)
+    {
+        Objects.requireNonNull(value, "Null values are not allowed.");
+
+        if (hashed != null) {
+            T old = hashed.put(key, value);
+            count = hashed.size();
+            return old;
+        }
+
+        int index = indexOf(key);
+        if (index >= 0) {
+            T old = items[index].item;
+            items[index].item = value;
+            return old;
+        }
+        insert(new KeyedItem<T>(key, value));
+        return null;
+    }
+
+    /**
+     * Associates a value with a key only if the key is not already in the table.
+     * @param key - key of the item
+     * @param value - value to store
+     * @return existing value or null if the value was added.
+     * @throws NullPointerException if value is null.
+     */
+    public T putIfAbsent(Comparable key, T value)
+    {
+        Objects.requireNonNull(value, "Null values are not allowed.");
+
+        if (hashed != null) {
+            T existing = hashed.putIfAbsent(key, value);
+            count = hashed.size();
+            return existing;
+        }
+
+        int index = indexOf(key);
+        if (index >= 0)
+            return items[index].item;
+
+        insert(new KeyedItem<T>(key, value));
+        return null;
+    }
+
+    /**
+     * Returns the value for a key, computing and adding it first if the key is absent.
+     * Nothing is added if the function returns null.
+     * @param key - key of the item
+     * @param fn - computes a value from the key
+     * @return existing or computed value.
+     */
+    public T computeIfAbsent(Comparable key, Function<Comparable, ? extends T> fn)
+    {
+        if (hashed != null) {
+            T value = hashed.computeIfAbsent(key, fn);
+            count = hashed.size();
+            return value;
+        }
+
+        int index = indexOf(key);
+        if (index >= 0)
+            return items[index].item;
+
+        T value = fn.apply(key);
+        if (value != null)
+            insert(new KeyedItem<T>(key, value));
+        return value;
+    }
+
+    /**
+     * Computes a new value from a key and its current value (null if absent).
+     * The item is deleted if the function returns null.
+     * @param key - key of the item
+     * @param fn - computes the new value from the key and current value
+     * @return new value or null if none.
+     */
+    public T compute(Comparable key, BiFunction<Comparable, ? super T, ? extends T> fn)
+    {
+        if (hashed != null) {
+            T value = hashed.compute(key, fn);
+            checkShrink();
+            return value;
+        }
+
+        int index = indexOf(key);
+        if (index >= 0) {
+            T value = fn.apply(key, items[index].item);
+            if (value == null)
+                removeAt(index);
+            else
+                items[index].item = value;
+            return value;
+        }
+
+        T value = fn.apply(key, null);
+        if (value != null)
+            insert(new KeyedItem<T>(key, value));
+        return value;
+    }
+
+    /**
+     * Adds the value if the key is absent, otherwise combines it with the current
+     * value.  The item is deleted if the function returns null.
+     * @param key - key of the item
+     * @param value - value to add or combine
+     * @param fn - combines the current value with the given value
+     * @return new value or null if none.
+     * @throws NullPointerException if value is null.
+     */
+    public T merge(Comparable key, T value, BiFunction<? super T, ? super T, ? extends T> fn)
+    {
+        Objects.requireNonNull(value, "Null values are not allowed.");
+
+        if (hashed != null) {
+            T merged = hashed.merge(key, value, fn);
+            checkShrink();
+            return merged;
+        }
+
+        int index = indexOf(key);
+        if (index >= 0) {
+            T merged = fn.apply(items[index].item, value);
+            if (merged == null)
+                removeAt(index);
+            else
+                items[index].item = merged;
+            return merged;
+        }
+
+        insert(new KeyedItem<T>(key, value));
+        return value;
+    }
+
+    /**
+     * @param args
+     */
+    public static void main(String[] args) {
+        AdaptiveHashTable<String> ht = new AdaptiveHashTable<>(31);
+
+        for (int i=0; i < 20; i++) {
+            ht.put(1000 + i, "value" + i);
+            if (i == 15 || i == 16)
+                System.out.println(ht.size() + " items, flat: " + ht.isFlat());
+        }
+
+        for (int i=0; i < 12; i++) {
+            ht.delete(1000 + i);
+            if (i == 10 || i == 11)
+                System.out.println(ht.size() + " items, flat: " + ht.isFlat());
+        }
+
+        System.out.println();
+        ht.printTable();
+
+        System.out.println();
+        System.out.println("Retrieval");
+        System.out.println(ht.get(1019));
+        System.out.println(ht.get(1000));
+    }
+
+}
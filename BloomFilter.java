@@ -0,0 +1,133 @@
+/**
+ * A blocked Bloom filter used in front of a hash table to answer "definitely not
+ * in the table" without probing the table itself.
+ *
+ * The bits are split into 512-bit blocks (one 64-byte cache line).  Each key selects
+ * one block and sets or tests all of its bits inside that block, so a lookup touches a
+ * single cache line.  A Bloom filter may report a key that was never added (a false
+ * positive) but never misses a key that was added.  Keys cannot be removed, so the filter
+ * should be rebuilt after many deletions.
+ */
+
+import java.util.Arrays;
+
+public class BloomFilter {
+
+    static final int BLOCK_BITS = 512;
+    static final int BLOCK_LONGS = BLOCK_BITS / 64;
+
+    long [] bits;
+    int numBlocks;
+    int numHashes;
+    int itemCount;
+
+    long lookups;
+    long negatives;
+    long falsePositives;
+
+    /**
+     * Constructor
+     * @param expectedItems - number of keys the filter is sized for
+     * @param falsePositiveRate - desired false positive rate (e.g. 0.01)
+     */
+    public BloomFilter(int expectedItems, double falsePositiveRate)
+    {
+        //Optimal number of bits per key and hashes per key for the desired rate
+        double bitsPerKey = -Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        long totalBits = (long) Math.ceil(Math.max(1, expectedItems) * bitsPerKey);
+
+        this.numBlocks = (int) Math.max(1, (totalBits + BLOCK_BITS - 1) / BLOCK_BITS);
+        this.numHashes = Math.max(1, (int) Math.round(bitsPerKey * Math.log(2)));
+        this.bits = new long[numBlocks * BLOCK_LONGS];
+    }
+
+    /**
+     * Adds a key to the filter.
+     * @param keyVal - integer representing the key (see HashFunctions.keyToInt)
+     */
+    public void add(int keyVal)
+    {
+        int h1 = HashFunctions.getMixHash(keyVal);
+        int h2 = HashFunctions.getMixHash(h1);
+        int base = ((h1 & 0x7fffffff) % numBlocks) * BLOCK_LONGS;
+        int step = (h2 >>> 16) | 1;
+
+        for (int i=0; i < numHashes; i++) {
+            int bit = (h2 + i * step) & (BLOCK_BITS - 1);
+            bits[base + (bit >>> 6)] |= 1L << bit;
+        }
+        itemCount++;
+    }
+
+    /**
+     * Tests whether a key may be in the filter.
+     * @param keyVal - integer representing the key (see HashFunctions.keyToInt)
+     * @return false if the key is definitely absent, true if it may be present.
+     */
+    public boolean mightContain(int keyVal)
+    {
+        int h1 = HashFunctions.getMixHash(keyVal);
+        int h2 = HashFunctions.getMixHash(h1);
+        int base = ((h1 & 0x7fffffff) % numBlocks) * BLOCK_LONGS;
+        int step = (h2 >>> 16) | 1;
+
+        lookups++;
+        for (int i=0; i < numHashes; i++) {
+            int bit = (h2 + i * step) & (BLOCK_BITS - 1);
+            if ((bits[base + (bit >>> 6)] & (1L << bit)) == 0) {
+                negatives++;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records that a key passed the filter but was not found in the table.
+     */
+    public void recordFalsePositive()
+    {
+        falsePositives++;
+    }
+
+    /**
+     * Removes all keys from the filter.  Statistics are kept.
+     */
+    public void clear()
+    {
+        Arrays.fill(bits, 0L);
+        itemCount = 0;
+    }
+
+    /**
+     * Returns the fraction of lookups for absent keys that the filter failed to reject.
+     * @return observed false positive rate, or 0 if no absent keys were looked up.
+     */
+    public double getObservedFalsePositiveRate()
+    {
+        long absent = negatives + falsePositives;
+        return (absent == 0) ? 0.0 : (double) falsePositives / absent;
+    }
+
+    /**
+     * Returns the expected false positive rate given the number of keys added.
+     * @return estimated false positive rate
+     */
+    public double getEstimatedFalsePositiveRate()
+    {
+        double m = (double) bits.length * 64;
+        return Math.pow(1 - Math.exp(-numHashes * itemCount / m), numHashes);
+    }
+
+    /**
+     * Returns a summary of the filter's statistics.
+     */
+    public String toString()
+    {
+        return "Bloom filter: " + itemCount + " keys, " + numBlocks + " blocks, " + numHashes + " hashes, "
+                + lookups + " lookups, " + negatives + " rejected, " + falsePositives + " false positives, "
+                + String.format("observed FPR %.4f, estimated FPR %.4f",
+                        getObservedFalsePositiveRate(), getEstimatedFalsePositiveRate());
+    }
+
+}
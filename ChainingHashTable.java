@@ -8,11 +8,18 @@
 
 import java.io.BufferedReader;
 import java.io.FileReader;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
-public class ChainingHashTable<T> {
+public class ChainingHashTable<T> implements HashTable<T> {
 
     int tableSize;
+    int count;
     HashNode<T> [] table;
+    BloomFilter filter; //null unless enabled
 
     /**
      * Constructor
@@ -49,15 +56,9 @@ public class ChainingHashTable<T> {
      * @param str - string to hash
      * @return hash value
      */
-    public int getStringHash(String str)
+    public int getStringHash(CharSequence str)
     {
-        int val = 0;
-        char [] chars = str.toCharArray();
-
-        for (int i=0; i < chars.length; i++)
-            val += chars[i];
-
-        return getIntHash(val);
+        return getIntHash(HashFunctions.stringToInt(str));
     }
 
     /**
@@ -71,6 +72,15 @@ public class ChainingHashTable<T> {
     }
 
 
+    /**
+     * Returns the number of items in the table.
+     * @return number of items
+     */
+    public int size()
+    {
+        return count;
+    }
+
     /**
      * Prints the items and their location in the table.
      */
@@ -91,6 +101,59 @@ public class ChainingHashTable<T> {
         }
     }
 
+    /**
+     * Performs an action on every item in the table.
+     * @param action - action to perform on each item
+     */
+    public void forEach(Consumer<KeyedItem<T>> action)
+    {
+        for (int i=0; i < table.length; i++) {
+            HashNode<T> cur = table[i];
+
+            while (cur != null) {
+                action.accept(cur.info);
+                cur = cur.next;
+            }
+        }
+    }
+
+    /**
+     * Performs an action on every item in a slot's chain.
+     * Used when writing a TableSnapshot.
+     * @param slot - index into the table
+     * @param action - action to perform
+     */
+    void forEachInSlot(int slot, Consumer<KeyedItem<T>> action)
+    {
+        HashNode<T> cur = table[slot];
+
+        while (cur != null) {
+            action.accept(cur.info);
+            cur = cur.next;
+        }
+    }
+
+    /**
+     * Appends an item to a slot's chain without hashing or checking for duplicates.
+     * Used when loading a TableSnapshot, which records the slot of every item.
+     * Does not update the count, since chunks are restored in parallel; the
+     * loader sets it once all chunks are done.
+     * @param slot - index into the table
+     * @param item - item to store
+     */
+    void restore(int slot, KeyedItem<T> item)
+    {
+        if (table[slot] == null) {
+            table[slot] = new HashNode<T>(item);
+            return;
+        }
+
+        HashNode<T> cur = table[slot];
+        while (cur.next != null)
+            cur = cur.next;
+        cur.next = new HashNode<T>(item);
+    }
+
     /**
      * Adds an item to the hash table and returns its index in the table.
      * -1 implies item not added  because duplicate or full.
@@ -103,6 +166,9 @@ public class ChainingHashTable<T> {
 
         if (table[hash] == null) {
             table[hash] = new HashNode<T>(item);
+            count++;
+            if (filter != null)
+                filter.add(HashFunctions.keyToInt(item.getKey()));
             return hash;
         }
         else {
@@ -118,6 +184,9 @@ public class ChainingHashTable<T> {
             }
 
             prev.next = new HashNode<T>(item);
+            count++;
+            if (filter != null)
+                filter.add(HashFunctions.keyToInt(item.getKey()));
 
             return hash;
         }
@@ -130,7 +199,13 @@ public class ChainingHashTable<T> {
      * @return deleted item.
      */
     @SuppressWarnings("unchecked")
-    public KeyedItem delete(Comparable key) {
+    public KeyedItem<T> delete(Comparable key) {
+        //Definite miss, so no need to walk the chain.
+        if ((filter != null) && !filter.mightContain(HashFunctions.keyToInt(key))) {
+            System.out.println("Item not in table.  No value deleted or returned.");
+            return null;
+        }
+
         int hash = getHash(key);
 
         if (table[hash] != null) {
@@ -144,12 +219,15 @@ public class ChainingHashTable<T> {
                     else {
                         prev.next = cur.next;
                     }
+                    count--;
                     return cur.info;
                 }
                 prev = cur;
                 cur = cur.next;
             }
         }
+        if (filter != null)
+            filter.recordFalsePositive();
         System.out.println("Item not in table.  No value deleted or returned.");
         return null;
     }
@@ -161,7 +239,13 @@ public class ChainingHashTable<T> {
      * @return retrieved item.
      */
     @SuppressWarnings("unchecked")
-    public KeyedItem get(Comparable key) {
+    public KeyedItem<T> get(Comparable key) {
+
+        //Definite miss, so no need to walk the chain.
+        if ((filter != null) && !filter.mightContain(HashFunctions.keyToInt(key))) {
+            System.out.println("Item not in table.  No value deleted or returned.");
+            return null;
+        }
 
         int hash = getHash(key);
 
@@ -175,10 +259,288 @@ public class ChainingHashTable<T> {
                 cur = cur.next;
             }
         }
+        if (filter != null)
+            filter.recordFalsePositive();
         System.out.println("Item not in table.  No value deleted or returned.");
         return null;
     }
 
+    /**
+     * Retrieves an item with a string key, given the key as any CharSequence
+     * (e.g. a StringBuilder or CharBuffer) so no String needs to be built.
+     * @param key - chars of the key
+     * @return retrieved item.
+     */
+    public KeyedItem<T> getByChars(CharSequence key) {
+
+        if ((filter != null) && !filter.mightContain(HashFunctions.stringToPolyInt(key))) {
+            System.out.println("Item not in table.  No value deleted or returned.");
+            return null;
+        }
+        return findString(getStringHash(key), key, null, null, 0, 0);
+    }
+
+    /**
+     * Retrieves an item with a string key, given the key as UTF-8 bytes.  The
+     * bytes are hashed and compared in place.
+     * @param buf - bytes holding the key
+     * @param offset - index of the first byte
+     * @param length - number of bytes
+     * @return retrieved item.
+     */
+    public KeyedItem<T> getByUtf8(byte [] buf, int offset, int length) {
+        return getByUtf8(buf, null, offset, offset + length);
+    }
+
+    /**
+     * Retrieves an item with a string key, given the key as the UTF-8 bytes between
+     * a buffer's position and limit.  The buffer's position is not changed.
+     * @param buf - buffer holding the key
+     * @return retrieved item.
+     */
+    public KeyedItem<T> getByUtf8(ByteBuffer buf) {
+        if (buf.hasArray())
+            return getByUtf8(buf.array(), null, buf.arrayOffset() + buf.position(), buf.arrayOffset() + buf.limit());
+        return getByUtf8(null, buf, buf.position(), buf.limit());
+    }
+
+    private KeyedItem<T> getByUtf8(byte [] arr, ByteBuffer buf, int start, int end) {
+
+        if ((filter != null) && !filter.mightContain(Utf8Keys.poly(arr, buf, start, end))) {
+            System.out.println("Item not in table.  No value deleted or returned.");
+            return null;
+        }
+        return findString(getIntHash(Utf8Keys.sum(arr, buf, start, end)), null, arr, buf, start, end);
+    }
+
+    /**
+     * Walks a chain looking for a string key given as chars or as UTF-8 bytes.
+     * @param hash - index of the chain
+     * @param chars - key as chars, or null if given as bytes
+     * @param arr - byte array holding the key, or null
+     * @param buf - buffer holding the key, or null
+     * @param start - index of the first byte
+     * @param end - index after the last byte
+     * @return retrieved item.
+     */
+    private KeyedItem<T> findString(int hash, CharSequence chars, byte [] arr, ByteBuffer buf, int start, int end) {
+        HashNode<T> cur = table[hash];
+
+        while (cur != null) {
+            if ((cur.info.key instanceof String)
+                    && Utf8Keys.matches((String) cur.info.key, chars, arr, buf, start, end))
+                return cur.info;
+            cur = cur.next;
+        }
+
+        if (filter != null)
+            filter.recordFalsePositive();
+        System.out.println("Item not in table.  No value deleted or returned.");
+        return null;
+    }
+
+    /**
+     * Finds the node holding a key within a single chain.
+     * @param hash - index of the chain
+     * @param key - key to find
+     * @return node or null if the key is not in the chain.
+     */
+    private HashNode<T> findNode(int hash, Comparable key) {
+        HashNode<T> cur = table[hash];
+
+        while (cur != null) {
+            if (key.compareTo(cur.info.key) == 0)
+                return cur;
+            cur = cur.next;
+        }
+        return null;
+    }
+
+    /**
+     * Associates a value with a key, replacing any existing value.
+     * @param key - key of the item
+     * @param value - value to store
+     * @return previous value or null if the key was not in the table.
+     * @throws NullPointerException if value is null.
+     */
+    public T put(Comparable key, T value) {
+        Objects.requireNonNull(value, "Null values are not allowed.");
+        int hash = getHash(key);
+        HashNode<T> node = findNode(hash, key);
+
+        if (node != null) {
+            T old = node.info.item;
+            node.info.item = value;
+            return old;
+        }
+
+        push(hash, new KeyedItem<T>(key, value));
+        return null;
+    }
+
+    /**
+     * Associates a value with a key only if the key is not already in the table.
+     * @param key - key of the item
+     * @param value - value to store
+     * @return existing value or null if the value was added.
+     * @throws NullPointerException if value is null.
+     */
+    public T putIfAbsent(Comparable key, T value) {
+        Objects.requireNonNull(value, "Null values are not allowed.");
+        int hash = getHash(key);
+        HashNode<T> node = findNode(hash, key);
+
+        if (node != null)
+            return node.info.item;
+
+        push(hash, new KeyedItem<T>(key, value));
+        return null;
+    }
+
+    /**
+     * Returns the value for a key, computing and adding it first if the key is absent.
+     * Nothing is added if the function returns null.
+     * @param key - key of the item
+     * @param fn - computes a value from the key
+     * @return existing or computed value.
+     */
+    public T computeIfAbsent(Comparable key, Function<Comparable, ? extends T> fn) {
+        int hash = getHash(key);
+        HashNode<T> node = findNode(hash, key);
+
+        if (node != null)
+            return node.info.item;
+
+        T value = fn.apply(key);
+        if (value != null)
+            push(hash, new KeyedItem<T>(key, value));
+        return value;
+    }
+
+    /**
+     * Computes a new value from a key and its current value (null if absent).
+     * The item is deleted if the function returns null.
+     * @param key - key of the item
+     * @param fn - computes the new value from the key and current value
+     * @return new value or null if none.
+     */
+    public T compute(Comparable key, BiFunction<Comparable, ? super T, ? extends T> fn) {
+        int hash = getHash(key);
+        HashNode<T> cur = table[hash];
+        HashNode<T> prev = null;
+
+        while (cur != null) {
+            if (key.compareTo(cur.info.key) == 0) {
+                T value = fn.apply(key, cur.info.item);
+                if (value == null)
+                    unlink(hash, prev, cur);
+                else
+                    cur.info.item = value;
+                return value;
+            }
+            prev = cur;
+            cur = cur.next;
+        }
+
+        T value = fn.apply(key, null);
+        if (value != null)
+            push(hash, new KeyedItem<T>(key, value));
+        return value;
+    }
+
+    /**
+     * Adds the value if the key is absent, otherwise combines it with the current
+     * value.  The item is deleted if the function returns null.
+     * @param key - key of the item
+     * @param value - value to add or combine
+     * @param fn - combines the current value with the given value
+     * @return new value or null if none.
+     * @throws NullPointerException if value is null.
+     */
+    public T merge(Comparable key, T value, BiFunction<? super T, ? super T, ? extends T> fn) {
+        Objects.requireNonNull(value, "Null values are not allowed.");
+        int hash = getHash(key);
+        HashNode<T> cur = table[hash];
+        HashNode<T> prev = null;
+
+        while (cur != null) {
+            if (key.compareTo(cur.info.key) == 0) {
+                T merged = fn.apply(cur.info.item, value);
+                if (merged == null)
+                    unlink(hash, prev, cur);
+                else
+                    cur.info.item = merged;
+                return merged;
+            }
+            prev = cur;
+            cur = cur.next;
+        }
+
+        push(hash, new KeyedItem<T>(key, value));
+        return value;
+    }
+
+    /**
+     * Pushes an item onto the front of a chain, which avoids walking the chain
+     * again after a lookup has already missed.
+     * @param hash - index of the chain
+     * @param item - item to add
+     */
+    private void push(int hash, KeyedItem<T> item) {
+        table[hash] = new HashNode<T>(item, table[hash]);
+        count++;
+        if (filter != null)
+            filter.add(HashFunctions.keyToInt(item.getKey()));
+    }
+
+    /**
+     * Maintains a Bloom filter alongside the table so that lookups of keys that are
+     * definitely absent return without walking a chain.
+     * @param expectedItems - number of keys the filter is sized for
+     * @param falsePositiveRate - desired false positive rate (e.g. 0.01)
+     */
+    public void enableBloomFilter(int expectedItems, double falsePositiveRate)
+    {
+        filter = new BloomFilter(expectedItems, falsePositiveRate);
+        rebuildBloomFilter();
+    }
+
+    /**
+     * Returns the Bloom filter, whose toString reports its statistics.
+     * @return filter or null if not enabled.
+     */
+    public BloomFilter getBloomFilter()
+    {
+        return filter;
+    }
+
+    /**
+     * Rebuilds the Bloom filter from the items currently in the table.  Deleted keys
+     * stay in the filter until it is rebuilt, raising its false positive rate.
+     */
+    public void rebuildBloomFilter()
+    {
+        if (filter == null)
+            return;
+
+        filter.clear();
+        forEach(item -> filter.add(HashFunctions.keyToInt(item.getKey())));
+    }
+
+    /**
+     * Removes a node from its chain.
+     * @param hash - index of the chain
+     * @param prev - node before cur, or null if cur is the head
+     * @param cur - node to remove
+     */
+    private void unlink(int hash, HashNode<T> prev, HashNode<T> cur) {
+        if (prev == null)
+            table[hash] = cur.next;
+        else
+            prev.next = cur.next;
+        count--;
+    }
+
     /**
      * Implements a link-list style node for chaining
      * @param <T> - type of the info stored in the keyedItem pair.
@@ -244,6 +606,14 @@ public class ChainingHashTable<T> {
             System.out.println(ht.get(ids[i]));
         }
 
+        System.out.println();
+        System.out.println("Merge Counts");
+        ChainingHashTable<Integer> counts = new ChainingHashTable<>(31);
+        String [] words = {"red", "blue", "red", "green", "blue", "red"};
+        for (int i=0; i < words.length; i++) {
+            counts.merge(words[i], 1, Integer::sum);
+        }
+        counts.printTable();
     }
 
 }
\ No newline at end of file
@@ -26,13 +26,12 @@ public class HashFunctions {
      * @param str - string that we want to convert to an integer
      * @return an integer that represents the string.
      */
-    public static int stringToInt(String str)
+    public static int stringToInt(CharSequence str)
     {
         int val = 0;
-        char [] chars = str.toCharArray();
 
-        for (int i=0; i < chars.length; i++)
-            val += chars[i];
+        for (int i=0; i < str.length(); i++)
+            val += str.charAt(i);
 
         return val;
     }
@@ -233,6 +232,61 @@ public class HashFunctions {
         return (int) (tmp % tableSize);
     }
 
+    /**
+     * Converts a string to an integer using a polynomial (base 31) sum of its characters.
+     * Unlike stringToInt, anagrams such as "abc" and "cba" produce different values.
+     * Overflow is allowed to wrap around.
+     *
+     * @param str - string that we want to convert to an integer
+     * @return an integer that represents the string.
+     */
+    public static int stringToPolyInt(CharSequence str)
+    {
+        int val = 0;
+
+        for (int i=0; i < str.length(); i++)
+            val = 31 * val + str.charAt(i);
+
+        return val;
+    }
+
+    /**
+     * Converts an integer or string key to an integer.
+     *
+     * @param key - key to convert (Integer or String)
+     * @return an integer that represents the key, or 0 if the key type is not supported.
+     */
+    public static int keyToInt(Comparable key)
+    {
+        if (key instanceof Integer)
+            return ((Integer) key).intValue();
+        else if (key instanceof String)
+            return stringToPolyInt((String) key);
+        else {
+            System.out.println("Invalid key: strings or integers only.");
+            return 0;
+        }
+    }
+
+    /**
+     * Scrambles the bits of an integer so that every input bit affects every output bit
+     * (the finalizer step of MurmurHash3).  The result uses the full 32-bit range, which
+     * makes it suitable for placing keys on a consistent-hash ring.  Modulo it by your
+     * table size if you want an index.
+     *
+     * @param val - value that represents your key
+     * @return a well-mixed 32-bit hash of val.
+     */
+    public static int getMixHash(int val)
+    {
+        val ^= val >>> 16;
+        val *= 0x85ebca6b;
+        val ^= val >>> 13;
+        val *= 0xc2b2ae35;
+        val ^= val >>> 16;
+        return val;
+    }
+
     /**
      * @param args
      */
@@ -0,0 +1,94 @@
+/**
+ * Common operations supported by the hash table classes so that they may be
+ * used interchangeably (e.g. as shards behind a ShardRouter).
+ */
+
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+public interface HashTable<T> {
+
+    /**
+     * Adds an item to the hash table.
+     * @param item - item to add
+     * @return index of item added or -1 if error.
+     */
+    int add(KeyedItem<T> item);
+
+    /**
+     * Retrieves an item given a key.
+     * @param key - key of item being retrieved
+     * @return retrieved item or null if not found.
+     */
+    KeyedItem<T> get(Comparable key);
+
+    /**
+     * Deletes an item given a key and returns the item.
+     * @param key - key of item being deleted
+     * @return deleted item or null if not found.
+     */
+    KeyedItem<T> delete(Comparable key);
+
+    /**
+     * Associates a value with a key, replacing any existing value.
+     * @param key - key of the item
+     * @param value - value to store
+     * @return previous value or null if the key was not in the table.
+     * @throws NullPointerException if value is null.
+     */
+    T put(Comparable key, T value);
+
+    /**
+     * Associates a value with a key only if the key is not already in the table.
+     * @param key - key of the item
+     * @param value - value to store
+     * @return existing value or null if the value was added.
+     * @throws NullPointerException if value is null.
+     */
+    T putIfAbsent(Comparable key, T value);
+
+    /**
+     * Returns the value for a key, computing and adding it first if the key is absent.
+     * @param key - key of the item
+     * @param fn - computes a value from the key
+     * @return existing or computed value.
+     */
+    T computeIfAbsent(Comparable key, Function<Comparable, ? extends T> fn);
+
+    /**
+     * Computes a new value from a key and its current value (null if absent).
+     * @param key - key of the item
+     * @param fn - computes the new value from the key and current value
+     * @return new value or null if none.
+     */
+    T compute(Comparable key, BiFunction<Comparable, ? super T, ? extends T> fn);
+
+    /**
+     * Adds the value if the key is absent, otherwise combines it with the current value.
+     * @param key - key of the item
+     * @param value - value to add or combine
+     * @param fn - combines the current value with the given value
+     * @return new value or null if none.
+     * @throws NullPointerException if value is null.
+     */
+    T merge(Comparable key, T value, BiFunction<? super T, ? super T, ? extends T> fn);
+
+    /**
+     * Returns the number of items in the table.
+     * @return number of items
+     */
+    int size();
+
+    /**
+     * Performs an action on every item in the table.  The table must not be
+     * modified by the action.
+     * @param action - action to perform on each item
+     */
+    void forEach(Consumer<KeyedItem<T>> action);
+
+    /**
+     * Prints the items and their location in the table.
+     */
+    void printTable();
+}
@@ -0,0 +1,116 @@
+/**
+ * A thread-safe latency histogram in the style of HdrHistogram.
+ *
+ * Values below 128 get one bucket each.  Above that, each power-of-two range is split
+ * into 64 equal buckets, so any recorded value is reported within about 1.6% of its
+ * true value while the whole range of a long fits in a few thousand counters.
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class LatencyHistogram {
+
+    static final int SUB_BITS = 7;
+    static final int SUB_COUNT = 1 << SUB_BITS;
+    static final int HALF_COUNT = SUB_COUNT / 2;
+
+    AtomicLongArray counts;
+    AtomicLong total;
+    AtomicLong max;
+
+    /**
+     * Constructor
+     */
+    public LatencyHistogram()
+    {
+        this.counts = new AtomicLongArray(SUB_COUNT + (64 - SUB_BITS) * HALF_COUNT);
+        this.total = new AtomicLong();
+        this.max = new AtomicLong();
+    }
+
+    /**
+     * Returns the bucket holding a value.
+     * @param val - non-negative value
+     * @return bucket index
+     */
+    static int getBucket(long val)
+    {
+        if (val < SUB_COUNT)
+            return (int) val;
+
+        //Keep the top SUB_BITS-1 bits below the leading one bit
+        int shift = (63 - Long.numberOfLeadingZeros(val)) - (SUB_BITS - 1);
+        return SUB_COUNT + (shift - 1) * HALF_COUNT + (int) ((val >>> shift) - HALF_COUNT);
+    }
+
+    /**
+     * Returns the largest value that falls in a bucket.
+     * @param bucket - bucket index
+     * @return highest value in the bucket
+     */
+    static long getBucketMax(int bucket)
+    {
+        if (bucket < SUB_COUNT)
+            return bucket;
+
+        int k = bucket - SUB_COUNT;
+        int shift = k / HALF_COUNT + 1;
+        long mantissa = k % HALF_COUNT + HALF_COUNT;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * Records a value.
+     * @param val - value to record (negative values are recorded as 0)
+     */
+    public void record(long val)
+    {
+        if (val < 0)
+            val = 0;
+
+        counts.incrementAndGet(getBucket(val));
+        total.incrementAndGet();
+        max.accumulateAndGet(val, Math::max);
+    }
+
+    /**
+     * Returns the number of recorded values.
+     * @return count
+     */
+    public long getCount()
+    {
+        return total.get();
+    }
+
+    /**
+     * Returns the largest recorded value.
+     * @return maximum
+     */
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    /**
+     * Returns the value at or below which the given percentage of recorded values fall.
+     * @param percentile - percentage between 0 and 100 (e.g. 99.9)
+     * @return value at the percentile, or 0 if nothing was recorded.
+     */
+    public long getPercentile(double percentile)
+    {
+        long count = total.get();
+        if (count == 0)
+            return 0;
+
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i=0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target)
+                return Math.min(getBucketMax(i), max.get());
+        }
+        return max.get();
+    }
+
+}
@@ -0,0 +1,346 @@
+/**
+ * Replays a recorded operation trace, or a generated uniform or Zipfian workload,
+ * against any HashTable using many concurrent clients, then reports throughput and
+ * latency percentiles.
+ *
+ * Trace files hold one operation per line: "add key value", "put key value",
+ * "get key" or "delete key".  Keys made only of digits are treated as Integers,
+ * anything else as Strings.
+ *
+ * Each client runs on a virtual thread when the JVM provides them (Java 21+) and
+ * on a pooled platform thread otherwise.  The tables are not thread-safe, so each
+ * operation holds a ReentrantLock rather than the table's monitor: before Java 24 a
+ * virtual thread blocked on a monitor pins its carrier thread, which would cap the
+ * number of running clients at the number of carriers.  Time spent waiting for the
+ * lock is recorded separately from the time spent in the table.
+ */
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class LoadGenerator {
+
+    static final int ADD = 0;
+    static final int PUT = 1;
+    static final int GET = 2;
+    static final int DELETE = 3;
+
+    /**
+     * One operation in a workload.
+     */
+    static class Op {
+
+        int type;
+        Comparable key;
+        String value;
+
+        /**
+         * Constructor
+         * @param type - ADD, PUT, GET or DELETE
+         * @param key - key of the operation
+         * @param value - value for ADD or PUT, otherwise null
+         */
+        Op(int type, Comparable key, String value) {
+            this.type = type;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Generates integers from 0 to n-1 following a Zipfian distribution, where small
+     * values are the most popular (Gray et al., "Quickly Generating Billion-Record
+     * Synthetic Databases").
+     */
+    static class ZipfianGenerator {
+
+        int n;
+        double theta;
+        double alpha;
+        double zetan;
+        double eta;
+        Random random;
+
+        /**
+         * Constructor
+         * @param n - number of distinct values
+         * @param theta - skew, between 0 and 1 exclusive (0.99 is typical)
+         * @param random - source of randomness
+         */
+        ZipfianGenerator(int n, double theta, Random random) {
+            this.n = n;
+            this.theta = theta;
+            this.random = random;
+
+            double zeta2 = zeta(2, theta);
+            this.zetan = zeta(n, theta);
+            this.alpha = 1.0 / (1.0 - theta);
+            this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta2 / zetan);
+        }
+
+        static double zeta(int n, double theta) {
+            double sum = 0;
+            for (int i=1; i <= n; i++)
+                sum += 1 / Math.pow(i, theta);
+            return sum;
+        }
+
+        int next() {
+            double u = random.nextDouble();
+            double uz = u * zetan;
+
+            if (uz < 1.0)
+                return 0;
+            if (uz < 1.0 + Math.pow(0.5, theta))
+                return 1;
+            return (int) (n * Math.pow(eta * u - eta + 1, alpha));
+        }
+    }
+
+    /**
+     * Reads an operation trace.
+     * @param fileName - trace file
+     * @return operations in file order
+     */
+    public static List<Op> loadTrace(String fileName) throws IOException
+    {
+        List<Op> ops = new ArrayList<>();
+
+        try (BufferedReader in = new BufferedReader(new FileReader(fileName))) {
+            String line;
+            int lineNum = 0;
+            while ((line = in.readLine()) != null) {
+                lineNum++;
+                String [] parts = line.trim().split("\\s+", 3);
+                if (parts[0].isEmpty() || parts[0].startsWith("#"))
+                    continue;
+
+                if (parts.length < 2) {
+                    System.out.println("Skipping line " + lineNum + ": missing key.");
+                    continue;
+                }
+                Comparable key = parts[1].matches("\\d{1,9}") ? (Comparable) Integer.valueOf(parts[1]) : parts[1];
+                String value = (parts.length > 2) ? parts[2] : "";
+
+                switch (parts[0].toLowerCase()) {
+                    case "add": ops.add(new Op(ADD, key, value)); break;
+                    case "put": ops.add(new Op(PUT, key, value)); break;
+                    case "get": ops.add(new Op(GET, key, null)); break;
+                    case "delete": ops.add(new Op(DELETE, key, null)); break;
+                    default:
+                        System.out.println("Skipping line " + lineNum + ": unknown operation " + parts[0]);
+                }
+            }
+        }
+        return ops;
+    }
+
+    /**
+     * Generates a workload whose keys are equally likely.
+     * @param count - number of operations
+     * @param keySpace - number of distinct integer keys
+     * @param readFraction - fraction of operations that are gets, the rest are puts
+     * @param seed - random seed
+     * @return operations
+     */
+    public static List<Op> uniform(int count, int keySpace, double readFraction, long seed)
+    {
+        Random random = new Random(seed);
+        List<Op> ops = new ArrayList<>(count);
+
+        for (int i=0; i < count; i++)
+            ops.add(makeOp(random.nextInt(keySpace), readFraction, random));
+        return ops;
+    }
+
+    /**
+     * Generates a workload whose key popularity follows a Zipfian distribution.
+     * @param count - number of operations
+     * @param keySpace - number of distinct integer keys
+     * @param theta - skew, between 0 and 1 exclusive (0.99 is typical)
+     * @param readFraction - fraction of operations that are gets, the rest are puts
+     * @param seed - random seed
+     * @return operations
+     */
+    public static List<Op> zipfian(int count, int keySpace, double theta, double readFraction, long seed)
+    {
+        Random random = new Random(seed);
+        ZipfianGenerator zipf = new ZipfianGenerator(keySpace, theta, random);
+        List<Op> ops = new ArrayList<>(count);
+
+        for (int i=0; i < count; i++)
+            ops.add(makeOp(zipf.next(), readFraction, random));
+        return ops;
+    }
+
+    static Op makeOp(int key, double readFraction, Random random)
+    {
+        if (random.nextDouble() < readFraction)
+            return new Op(GET, key, null);
+        return new Op(PUT, key, "value" + key);
+    }
+
+    /**
+     * Creates the executor running the clients: one virtual thread per client when
+     * available, otherwise a fixed pool of platform threads.
+     * @param clients - number of clients
+     * @return executor
+     */
+    static ExecutorService newClientExecutor(int clients)
+    {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(clients);
+        }
+    }
+
+    /**
+     * Replays operations against a table.  Client i performs operations i, i+clients, ...
+     * The tables print on collisions and misses, so standard output is silenced for
+     * the duration of the run.  System.setOut is global, so output from any other
+     * thread in the JVM is lost during the run as well.
+     * @param table - table under test
+     * @param ops - operations to perform
+     * @param clients - number of concurrent clients
+     * @param latency - receives the time each operation spent in the table, in nanoseconds
+     * @param lockWait - receives the time each operation waited for the table lock, in nanoseconds
+     * @throws ExecutionException if any client failed, since the results would cover a partial run
+     * @throws IllegalStateException if the run did not finish within an hour
+     */
+    public static void run(HashTable<String> table, List<Op> ops, int clients,
+                           LatencyHistogram latency, LatencyHistogram lockWait)
+            throws InterruptedException, ExecutionException
+    {
+        ReentrantLock lock = new ReentrantLock();
+        PrintStream out = System.out;
+        ExecutorService executor = newClientExecutor(clients);
+        List<Future<?>> results = new ArrayList<>();
+
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            for (int c=0; c < clients; c++) {
+                int client = c;
+                results.add(executor.submit(() -> {
+                    for (int i=client; i < ops.size(); i += clients) {
+                        Op op = ops.get(i);
+                        long start = System.nanoTime();
+                        long acquired, done;
+                        lock.lock();
+                        try {
+                            acquired = System.nanoTime();
+                            perform(table, op);
+                            done = System.nanoTime();
+                        } finally {
+                            lock.unlock();
+                        }
+                        lockWait.record(acquired - start);
+                        latency.record(done - acquired);
+                    }
+                }));
+            }
+            executor.shutdown();
+            if (!executor.awaitTermination(1, TimeUnit.HOURS))
+                throw new IllegalStateException("Load run did not finish within an hour.");
+
+            for (Future<?> result : results)
+                result.get();
+        } finally {
+            executor.shutdownNow();
+            System.setOut(out);
+        }
+    }
+
+    static void perform(HashTable<String> table, Op op)
+    {
+        switch (op.type) {
+            case ADD: table.add(new KeyedItem<String>(op.key, op.value)); break;
+            case PUT: table.put(op.key, op.value); break;
+            case GET: table.get(op.key); break;
+            case DELETE: table.delete(op.key); break;
+        }
+    }
+
+    /**
+     * Runs a workload and prints throughput, then percentiles of the time spent in
+     * the table and of the time spent waiting for the table lock.
+     * @param name - label for the report
+     * @param table - table under test
+     * @param ops - operations to perform
+     * @param clients - number of concurrent clients
+     */
+    public static void report(String name, HashTable<String> table, List<Op> ops, int clients)
+            throws InterruptedException, ExecutionException
+    {
+        LatencyHistogram latency = new LatencyHistogram();
+        LatencyHistogram lockWait = new LatencyHistogram();
+
+        long start = System.nanoTime();
+        run(table, ops, clients, latency, lockWait);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.println(String.format("%-20s %10.0f ops/s", name, latency.getCount() / seconds));
+        printPercentiles("  in table", latency);
+        printPercentiles("  lock wait", lockWait);
+    }
+
+    static void printPercentiles(String label, LatencyHistogram histogram)
+    {
+        System.out.println(String.format("%-20s p50 %8.2f us  p99 %8.2f us  p99.9 %8.2f us  max %8.2f us",
+                label,
+                histogram.getPercentile(50) / 1000.0,
+                histogram.getPercentile(99) / 1000.0,
+                histogram.getPercentile(99.9) / 1000.0,
+                histogram.getMax() / 1000.0));
+    }
+
+    /**
+     * Usage: java LoadGenerator [traceFile] [clients]
+     * Without a trace file, a Zipfian and a uniform workload are generated.
+     * @param args
+     */
+    public static void main(String[] args) throws Exception {
+        int clients = (args.length > 1) ? Integer.parseInt(args[1]) : 64;
+        int keySpace = 10000;
+
+        List<List<Op>> workloads = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        if (args.length > 0) {
+            workloads.add(loadTrace(args[0]));
+            names.add(args[0]);
+        }
+        else {
+            workloads.add(zipfian(1000000, keySpace, 0.99, 0.9, 42));
+            names.add("zipfian");
+            workloads.add(uniform(1000000, keySpace, 0.9, 42));
+            names.add("uniform");
+        }
+
+        for (int w=0; w < workloads.size(); w++) {
+            System.out.println(names.get(w) + ": " + workloads.get(w).size() + " operations, " + clients + " clients");
+
+            report("chaining", new ChainingHashTable<String>(20011), workloads.get(w), clients);
+            report("probing", new ProbingHashTable<String>(20011), workloads.get(w), clients);
+
+            ShardRouter<String> router = new ShardRouter<>(64);
+            for (int s=0; s < 4; s++)
+                router.addShard("shard" + s, new ChainingHashTable<String>(5003));
+            report("sharded chaining", router, workloads.get(w), clients);
+
+            System.out.println();
+        }
+    }
+
+}
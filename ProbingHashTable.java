@@ -8,11 +8,18 @@
 
 import java.io.BufferedReader;
 import java.io.FileReader;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
-public class ProbingHashTable<T> {
+public class ProbingHashTable<T> implements HashTable<T> {
 
     int tableSize;
+    int count;
     KeyedItem<T> [] table;
+    BloomFilter filter; //null unless enabled
 
     /**
      * Constructor
@@ -49,15 +56,9 @@ public class ProbingHashTable<T> {
      * @param str - string to hash
      * @return hash value
      */
-    public int getStringHash(String str)
+    public int getStringHash(CharSequence str)
     {
-        int val = 0;
-        char [] chars = str.toCharArray();
-
-        for (int i=0; i < chars.length; i++)
-            val += chars[i];
-
-        return getIntHash(val);
+        return getIntHash(HashFunctions.stringToInt(str));
     }
 
     /**
@@ -71,6 +72,15 @@ public class ProbingHashTable<T> {
     }
 
 
+    /**
+     * Returns the number of items in the table.
+     * @return number of items
+     */
+    public int size()
+    {
+        return count;
+    }
+
     /**
      * Prints the items and their location in the table.
      */
@@ -84,13 +94,51 @@ public class ProbingHashTable<T> {
         }
     }
 
+    /**
+     * Performs an action on every valid item in the table.
+     * @param action - action to perform on each item
+     */
+    public void forEach(Consumer<KeyedItem<T>> action)
+    {
+        for (int i=0; i < table.length; i++) {
+            if((table[i] != null) && table[i].isValid())
+                action.accept(table[i]);
+        }
+    }
+
+    /**
+     * Performs an action on the item stored in a slot, including deleted items,
+     * which must be kept so that probes continue past them.
+     * Used when writing a TableSnapshot.
+     * @param slot - index into the table
+     * @param action - action to perform
+     */
+    void forEachInSlot(int slot, Consumer<KeyedItem<T>> action)
+    {
+        if (table[slot] != null)
+            action.accept(table[slot]);
+    }
+
+    /**
+     * Places an item directly into a slot without hashing.  Used when loading a
+     * TableSnapshot, which records the slot of every item.  Does not update the
+     * count, since chunks are restored in parallel; the loader sets it once all
+     * chunks are done.
+     * @param slot - index into the table
+     * @param item - item to store
+     */
+    void restore(int slot, KeyedItem<T> item)
+    {
+        table[slot] = item;
+    }
+
     /**
      * Adds an item to the hash table and returns its index in the table.
      * -1 implies item not added  because duplicate or full.
      * @param item - item to add
      * @return index of item added or -1 if error.
      */
-    public int add(KeyedItem item) {
+    public int add(KeyedItem<T> item) {
 
         int startHash = getHash(item.getKey());
         int hash = startHash;
@@ -98,6 +146,9 @@ public class ProbingHashTable<T> {
         do {
             if ((table[hash] == null) || (!table[hash].isValid())) {
                 table[hash] = item;
+                count++;
+                if (filter != null)
+                    filter.add(HashFunctions.keyToInt(item.getKey()));
                 return hash;
             }
             else if (item.compareTo(table[hash]) == 0) {
@@ -126,12 +177,20 @@ public class ProbingHashTable<T> {
      * @param key - key of item being retrieved
      * @return deleted item.
      */
-    public KeyedItem delete(Comparable key) {
+    public KeyedItem<T> delete(Comparable key) {
+        //Definite miss, so no need to probe.
+        if ((filter != null) && !filter.mightContain(HashFunctions.keyToInt(key))) {
+            System.out.println("Could not find item to delete.");
+            return null;
+        }
+
         int startHash = getHash(key);
         int hash = startHash;
 
         do {
             if (table[hash] == null) {
+                if (filter != null)
+                    filter.recordFalsePositive();
                 System.out.println("Could not find item to delete.");
                 return null;
             }
@@ -140,6 +199,7 @@ public class ProbingHashTable<T> {
                 //If valid, then set invalid and return the item
                 if (table[hash].isValid()) {
                     table[hash].setInvalid();
+                    count--;
                     return table[hash];
                 }
 
@@ -151,6 +211,8 @@ public class ProbingHashTable<T> {
 
         } while (startHash != hash); //Don't want to go full circle.
 
+        if (filter != null)
+            filter.recordFalsePositive();
         System.out.println("Could not find item to delete.");
         return null;
 
@@ -162,13 +224,21 @@ public class ProbingHashTable<T> {
      * @param key - key of item being retrieved
      * @return retrieved item.
      */
-    public KeyedItem get(Comparable key) {
+    public KeyedItem<T> get(Comparable key) {
+
+        //Definite miss, so no need to probe.
+        if ((filter != null) && !filter.mightContain(HashFunctions.keyToInt(key))) {
+            System.out.println("Could not find item");
+            return null;
+        }
 
         int startHash = getHash(key);
         int hash = startHash;
 
         do {
             if (table[hash] == null) {
+                if (filter != null)
+                    filter.recordFalsePositive();
                 System.out.println("Could not find item");
                 return null;
             }
@@ -186,10 +256,321 @@ public class ProbingHashTable<T> {
 
         } while (startHash != hash); //Don't want to go full circle.
 
+        if (filter != null)
+            filter.recordFalsePositive();
         System.out.println("Could not find item");
         return null;
     }
 
+    /**
+     * Retrieves an item with a string key, given the key as any CharSequence
+     * (e.g. a StringBuilder or CharBuffer) so no String needs to be built.
+     * @param key - chars of the key
+     * @return retrieved item.
+     */
+    public KeyedItem<T> getByChars(CharSequence key) {
+
+        if ((filter != null) && !filter.mightContain(HashFunctions.stringToPolyInt(key))) {
+            System.out.println("Could not find item");
+            return null;
+        }
+        return findString(getStringHash(key), key, null, null, 0, 0);
+    }
+
+    /**
+     * Retrieves an item with a string key, given the key as UTF-8 bytes.  The
+     * bytes are hashed and compared in place.
+     * @param buf - bytes holding the key
+     * @param offset - index of the first byte
+     * @param length - number of bytes
+     * @return retrieved item.
+     */
+    public KeyedItem<T> getByUtf8(byte [] buf, int offset, int length) {
+        return getByUtf8(buf, null, offset, offset + length);
+    }
+
+    /**
+     * Retrieves an item with a string key, given the key as the UTF-8 bytes between
+     * a buffer's position and limit.  The buffer's position is not changed.
+     * @param buf - buffer holding the key
+     * @return retrieved item.
+     */
+    public KeyedItem<T> getByUtf8(ByteBuffer buf) {
+        if (buf.hasArray())
+            return getByUtf8(buf.array(), null, buf.arrayOffset() + buf.position(), buf.arrayOffset() + buf.limit());
+        return getByUtf8(null, buf, buf.position(), buf.limit());
+    }
+
+    private KeyedItem<T> getByUtf8(byte [] arr, ByteBuffer buf, int start, int end) {
+
+        if ((filter != null) && !filter.mightContain(Utf8Keys.poly(arr, buf, start, end))) {
+            System.out.println("Could not find item");
+            return null;
+        }
+        return findString(getIntHash(Utf8Keys.sum(arr, buf, start, end)), null, arr, buf, start, end);
+    }
+
+    /**
+     * Probes for a string key given as chars or as UTF-8 bytes.
+     * @param startHash - index to start probing from
+     * @param chars - key as chars, or null if given as bytes
+     * @param arr - byte array holding the key, or null
+     * @param buf - buffer holding the key, or null
+     * @param start - index of the first byte
+     * @param end - index after the last byte
+     * @return retrieved item.
+     */
+    private KeyedItem<T> findString(int startHash, CharSequence chars, byte [] arr, ByteBuffer buf, int start, int end) {
+        int hash = startHash;
+
+        do {
+            if (table[hash] == null)
+                break;
+            else if (table[hash].isValid() && (table[hash].key instanceof String)
+                    && Utf8Keys.matches((String) table[hash].key, chars, arr, buf, start, end))
+                return table[hash];
+
+            hash = ((hash + 1) % tableSize); //increment and modulo to handle roll over
+        } while (startHash != hash); //Don't want to go full circle.
+
+        if (filter != null)
+            filter.recordFalsePositive();
+        System.out.println("Could not find item");
+        return null;
+    }
+
+    /**
+     * Probes for a key in a single pass over the table.
+     *
+     * Returns the index of the valid item holding the key.  If the key is absent,
+     * returns -(insertion index) - 1, where the insertion index is the first empty
+     * or deleted slot seen along the probe sequence.  If the key is absent and the
+     * table is full, returns Integer.MIN_VALUE.
+     * @param key - key to find
+     * @return slot index, encoded insertion index, or Integer.MIN_VALUE.
+     */
+    private int probe(Comparable key) {
+        int startHash = getHash(key);
+        int hash = startHash;
+        int free = -1;
+
+        do {
+            if (table[hash] == null) {
+                //End of the probe sequence, so the key is not in the table.
+                return -((free < 0) ? hash : free) - 1;
+            }
+            else if (!table[hash].isValid()) {
+                //Remember the first deleted slot, but keep looking for the key.
+                if (free < 0)
+                    free = hash;
+            }
+            else if (key.compareTo(table[hash].getKey()) == 0) {
+                return hash;
+            }
+
+            hash = ((hash + 1) % tableSize); //increment and modulo to handle roll over
+        } while (startHash != hash); //Don't want to go full circle.
+
+        return (free < 0) ? Integer.MIN_VALUE : -free - 1;
+    }
+
+    /**
+     * Stores an item at the insertion index returned by probe.
+     * @param slot - encoded insertion index from probe
+     * @param item - item to store
+     * @throws IllegalStateException if the table is full.
+     */
+    private void insertAt(int slot, KeyedItem<T> item) {
+        if (slot == Integer.MIN_VALUE)
+            throw new IllegalStateException("Table full.  Could not add item.");
+
+        table[-slot - 1] = item;
+        count++;
+        if (filter != null)
+            filter.add(HashFunctions.keyToInt(item.getKey()));
+    }
+
+    /**
+     * Maintains a Bloom filter alongside the table so that lookups of keys that are
+     * definitely absent return without probing.
+     * @param expectedItems - number of keys the filter is sized for
+     * @param falsePositiveRate - desired false positive rate (e.g. 0.01)
+     */
+    public void enableBloomFilter(int expectedItems, double falsePositiveRate)
+    {
+        filter = new BloomFilter(expectedItems, falsePositiveRate);
+        rebuildBloomFilter();
+    }
+
+    /**
+     * Returns the Bloom filter, whose toString reports its statistics.
+     * @return filter or null if not enabled.
+     */
+    public BloomFilter getBloomFilter()
+    {
+        return filter;
+    }
+
+    /**
+     * Rebuilds the Bloom filter from the items currently in the table, dropping
+     * keys that have since been deleted.
+     */
+    public void rebuildBloomFilter()
+    {
+        if (filter == null)
+            return;
+
+        filter.clear();
+        forEach(item -> filter.add(HashFunctions.keyToInt(item.getKey())));
+    }
+
+    /**
+     * Re-inserts all valid items into a fresh table, removing deleted items so
+     * that misses stop at the first empty slot again.  The Bloom filter is rebuilt.
+     * @return number of deleted items removed.
+     */
+    public int purgeTombstones()
+    {
+        KeyedItem<T> [] old = table;
+        int purged = 0;
+
+        table = new KeyedItem[tableSize];
+        for (int i=0; i < old.length; i++) {
+            if (old[i] == null)
+                continue;
+            if (!old[i].isValid()) {
+                purged++;
+                continue;
+            }
+
+            int hash = getHash(old[i].getKey());
+            while (table[hash] != null)
+                hash = ((hash + 1) % tableSize);
+            table[hash] = old[i];
+        }
+
+        rebuildBloomFilter();
+        return purged;
+    }
+
+    /**
+     * Associates a value with a key, replacing any existing value.
+     * @param key - key of the item
+     * @param value - value to store
+     * @return previous value or null if the key was not in the table.
+     * @throws IllegalStateException if the key is absent and the table is full.
+     * @throws NullPointerException if value is null.
+     */
+    public T put(Comparable key, T value) {
+        Objects.requireNonNull(value, "Null values are not allowed.");
+        int slot = probe(key);
+
+        if (slot >= 0) {
+            T old = table[slot].item;
+            table[slot].item = value;
+            return old;
+        }
+
+        insertAt(slot, new KeyedItem<T>(key, value));
+        return null;
+    }
+
+    /**
+     * Associates a value with a key only if the key is not already in the table.
+     * @param key - key of the item
+     * @param value - value to store
+     * @return existing value or null if the value was added.
+     * @throws IllegalStateException if the key is absent and the table is full.
+     * @throws NullPointerException if value is null.
+     */
+    public T putIfAbsent(Comparable key, T value) {
+        Objects.requireNonNull(value, "Null values are not allowed.");
+        int slot = probe(key);
+
+        if (slot >= 0)
+            return table[slot].item;
+
+        insertAt(slot, new KeyedItem<T>(key, value));
+        return null;
+    }
+
+    /**
+     * Returns the value for a key, computing and adding it first if the key is absent.
+     * Nothing is added if the function returns null.
+     * @param key - key of the item
+     * @param fn - computes a value from the key
+     * @return existing or computed value.
+     * @throws IllegalStateException if the key is absent and the table is full.
+     */
+    public T computeIfAbsent(Comparable key, Function<Comparable, ? extends T> fn) {
+        int slot = probe(key);
+
+        if (slot >= 0)
+            return table[slot].item;
+
+        T value = fn.apply(key);
+        if (value != null)
+            insertAt(slot, new KeyedItem<T>(key, value));
+        return value;
+    }
+
+    /**
+     * Computes a new value from a key and its current value (null if absent).
+     * The item is deleted if the function returns null.
+     * @param key - key of the item
+     * @param fn - computes the new value from the key and current value
+     * @return new value or null if none.
+     * @throws IllegalStateException if the key is absent and the table is full.
+     */
+    public T compute(Comparable key, BiFunction<Comparable, ? super T, ? extends T> fn) {
+        int slot = probe(key);
+
+        if (slot >= 0) {
+            T value = fn.apply(key, table[slot].item);
+            if (value == null) {
+                table[slot].setInvalid();
+                count--;
+            }
+            else
+                table[slot].item = value;
+            return value;
+        }
+
+        T value = fn.apply(key, null);
+        if (value != null)
+            insertAt(slot, new KeyedItem<T>(key, value));
+        return value;
+    }
+
+    /**
+     * Adds the value if the key is absent, otherwise combines it with the current
+     * value.  The item is deleted if the function returns null.
+     * @param key - key of the item
+     * @param value - value to add or combine
+     * @param fn - combines the current value with the given value
+     * @return new value or null if none.
+     * @throws IllegalStateException if the key is absent and the table is full.
+     * @throws NullPointerException if value is null.
+     */
+    public T merge(Comparable key, T value, BiFunction<? super T, ? super T, ? extends T> fn) {
+        Objects.requireNonNull(value, "Null values are not allowed.");
+        int slot = probe(key);
+
+        if (slot >= 0) {
+            T merged = fn.apply(table[slot].item, value);
+            if (merged == null) {
+                table[slot].setInvalid();
+                count--;
+            }
+            else
+                table[slot].item = merged;
+            return merged;
+        }
+
+        insertAt(slot, new KeyedItem<T>(key, value));
+        return value;
+    }
+
     /**
      * @paramg args
      */
@@ -225,6 +606,25 @@ public class ProbingHashTable<T> {
         for (int i=0; i < ids.length; i++) {
             System.out.println(ht.get(ids[i]));
         }
+
+        System.out.println();
+        System.out.println("Merge Counts");
+        ProbingHashTable<Integer> counts = new ProbingHashTable<>(31);
+        String [] words = {"red", "blue", "red", "green", "blue", "red"};
+        for (int i=0; i < words.length; i++) {
+            counts.merge(words[i], 1, Integer::sum);
+        }
+        counts.printTable();
+
+        System.out.println();
+        System.out.println("Bloom Filter");
+        ht.enableBloomFilter(31, 0.01);
+        for (int i=0; i < ids.length; i++) {
+            ht.get("X" + ids[i]);
+        }
+        System.out.println(ht.getBloomFilter());
+        System.out.println("Purged " + ht.purgeTombstones() + " deleted items");
+        ht.printTable();
     }
 
 }
\ No newline at end of file
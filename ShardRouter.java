@@ -0,0 +1,436 @@
+/**
+ * Spreads one logical key space over several hash table instances (shards) using
+ * a consistent-hash ring with virtual nodes.
+ *
+ * Each shard is placed on the ring at several points (virtual nodes).  A key belongs
+ * to the first virtual node at or after the key's ring position, wrapping around at
+ * the end.  When a shard is added, it only takes over the ring ranges just before its
+ * own virtual nodes, so only the shards that owned those ranges are scanned and only
+ * the keys that fall in them are moved.  When a shard is removed, only its own keys
+ * are moved to the shards that now own its ranges.
+ *
+ * Shards may be any HashTable (e.g. ChainingHashTable or ProbingHashTable), which allows
+ * in-process tables to stand in for remote nodes.  All operations are synchronized so
+ * a router may be shared between threads.
+ */
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+public class ShardRouter<T> implements HashTable<T> {
+
+    int virtualNodes;
+    TreeMap<Integer, String> ring;
+    Map<String, HashTable<T>> shards;
+
+    /**
+     * Constructor
+     * @param virtualNodes - number of ring positions given to each shard.
+     */
+    public ShardRouter(int virtualNodes)
+    {
+        this.virtualNodes = virtualNodes;
+        this.ring = new TreeMap<>();
+        this.shards = new LinkedHashMap<>();
+    }
+
+    /**
+     * Returns the position of a key on the ring.
+     * @param key - key to hash
+     * @return ring position
+     */
+    int getRingHash(Comparable key)
+    {
+        return HashFunctions.getMixHash(HashFunctions.keyToInt(key));
+    }
+
+    /**
+     * Returns the position of one of a shard's virtual nodes on the ring.
+     * @param name - name of the shard
+     * @param replica - index of the virtual node
+     * @return ring position
+     */
+    int getNodeHash(String name, int replica)
+    {
+        return HashFunctions.getMixHash(HashFunctions.stringToPolyInt(name + "#" + replica));
+    }
+
+    /**
+     * Returns the name of the shard owning a ring position.
+     * @param hash - ring position
+     * @return shard name or null if there are no shards.
+     */
+    String getOwner(int hash)
+    {
+        if (ring.isEmpty())
+            return null;
+
+        Map.Entry<Integer, String> entry = ring.ceilingEntry(hash);
+        if (entry == null)
+            entry = ring.firstEntry(); //wrap around the ring
+        return entry.getValue();
+    }
+
+    /**
+     * Returns the name of the shard responsible for a key.
+     * @param key - key to route
+     * @return shard name or null if there are no shards.
+     */
+    public synchronized String getShardName(Comparable key)
+    {
+        return getOwner(getRingHash(key));
+    }
+
+    /**
+     * Returns the shard responsible for a key.
+     * @param key - key to route
+     * @return shard or null if there are no shards.
+     */
+    public synchronized HashTable<T> getShard(Comparable key)
+    {
+        String name = getOwner(getRingHash(key));
+        if (name == null) {
+            System.out.println("No shards.  Key cannot be routed.");
+            return null;
+        }
+        return shards.get(name);
+    }
+
+    /**
+     * Adds a shard to the ring and moves the keys it now owns out of the shards
+     * that previously owned its ranges.
+     * @param name - unique name of the shard
+     * @param table - table holding the shard's items
+     * @return number of items moved, or -1 if the name is already in use or the
+     *   items could not be moved (in which case the shard is not added).
+     */
+    public synchronized int addShard(String name, HashTable<T> table)
+    {
+        if (shards.containsKey(name)) {
+            System.out.println("Shard already exists: " + name);
+            return -1;
+        }
+
+        //The previous owner of each new ring position is the only shard that loses keys.
+        Set<String> donors = new LinkedHashSet<>();
+        List<Integer> points = new ArrayList<>();
+        for (int i=0; i < virtualNodes; i++) {
+            int point = getNodeHash(name, i);
+            if (ring.containsKey(point))
+                continue; //Position already taken by another shard
+            String owner = getOwner(point);
+            if (owner != null)
+                donors.add(owner);
+            points.add(point);
+        }
+
+        for (int point : points)
+            ring.put(point, name);
+        shards.put(name, table);
+
+        List<Move<T>> moves = new ArrayList<>();
+        for (String donor : donors)
+            findMoves(shards.get(donor), donor, moves);
+
+        if (!relocate(moves)) {
+            for (int point : points)
+                ring.remove(point);
+            shards.remove(name);
+            System.out.println("Could not add shard " + name + ".  No items moved.");
+            return -1;
+        }
+        return moves.size();
+    }
+
+    /**
+     * Removes a shard from the ring and moves its keys to the shards that now own its ranges.
+     * @param name - name of the shard
+     * @return number of items moved, or -1 if the shard cannot be removed or its
+     *   items could not be moved (in which case the shard is kept).
+     */
+    public synchronized int removeShard(String name)
+    {
+        HashTable<T> table = shards.get(name);
+        if (table == null) {
+            System.out.println("No such shard: " + name);
+            return -1;
+        }
+        if (shards.size() == 1) {
+            System.out.println("Cannot remove the last shard.");
+            return -1;
+        }
+
+        List<Integer> points = new ArrayList<>();
+        for (Map.Entry<Integer, String> entry : ring.entrySet()) {
+            if (entry.getValue().equals(name))
+                points.add(entry.getKey());
+        }
+        for (int point : points)
+            ring.remove(point);
+        shards.remove(name);
+
+        List<Move<T>> moves = new ArrayList<>();
+        findMoves(table, name, moves);
+
+        if (!relocate(moves)) {
+            for (int point : points)
+                ring.put(point, name);
+            shards.put(name, table);
+            System.out.println("Could not remove shard " + name + ".  No items moved.");
+            return -1;
+        }
+        return moves.size();
+    }
+
+    /**
+     * An item that must move from one shard to another.
+     */
+    static class Move<T> {
+
+        HashTable<T> from;
+        HashTable<T> to;
+        KeyedItem<T> item;
+        T previous; //value replaced in the target, restored on rollback
+
+        Move(HashTable<T> from, HashTable<T> to, KeyedItem<T> item) {
+            this.from = from;
+            this.to = to;
+            this.item = item;
+        }
+    }
+
+    /**
+     * Finds every item in a table that is no longer owned by the named shard.
+     * @param table - table to scan
+     * @param name - name the table was owned under
+     * @param moves - list the moves are added to
+     */
+    void findMoves(HashTable<T> table, String name, List<Move<T>> moves)
+    {
+        table.forEach(item -> {
+            String owner = getOwner(getRingHash(item.getKey()));
+            if (!name.equals(owner))
+                moves.add(new Move<T>(table, shards.get(owner), item));
+        });
+    }
+
+    /**
+     * Copies every item into its new shard, then deletes it from its old shard.
+     * If any copy fails (e.g. a full probing table, or an item added with a null
+     * value), the copies already made are undone and the old shards are left untouched.
+     * @param moves - items to move
+     * @return true if all items moved, false if nothing moved.
+     */
+    boolean relocate(List<Move<T>> moves)
+    {
+        for (int i=0; i < moves.size(); i++) {
+            Move<T> move = moves.get(i);
+            try {
+                move.previous = move.to.put(move.item.getKey(), move.item.item);
+            } catch (IllegalStateException | NullPointerException e) {
+                System.out.println("Could not move key " + move.item.getKey() + ": " + e.getMessage());
+                for (int j=i-1; j >= 0; j--) {
+                    Move<T> undo = moves.get(j);
+                    if (undo.previous != null)
+                        undo.to.put(undo.item.getKey(), undo.previous);
+                    else
+                        undo.to.delete(undo.item.getKey());
+                }
+                return false;
+            }
+        }
+
+        for (Move<T> move : moves)
+            move.from.delete(move.item.getKey());
+        return true;
+    }
+
+    /**
+     * Returns the number of shards.
+     * @return number of shards
+     */
+    public synchronized int getShardCount()
+    {
+        return shards.size();
+    }
+
+    /**
+     * Adds an item to the shard responsible for its key.
+     * @param item - item to add
+     * @return index of item within its shard or -1 if error.
+     */
+    public synchronized int add(KeyedItem<T> item)
+    {
+        HashTable<T> shard = getShard(item.getKey());
+        return (shard == null) ? -1 : shard.add(item);
+    }
+
+    /**
+     * Retrieves an item given a key.
+     * @param key - key of item being retrieved
+     * @return retrieved item.
+     */
+    public synchronized KeyedItem<T> get(Comparable key)
+    {
+        HashTable<T> shard = getShard(key);
+        return (shard == null) ? null : shard.get(key);
+    }
+
+    /**
+     * Deletes an item given a key and returns the item.
+     * @param key - key of item being deleted
+     * @return deleted item.
+     */
+    public synchronized KeyedItem<T> delete(Comparable key)
+    {
+        HashTable<T> shard = getShard(key);
+        return (shard == null) ? null : shard.delete(key);
+    }
+
+    /**
+     * Associates a value with a key in the shard responsible for it.
+     * @param key - key of the item
+     * @param value - value to store
+     * @return previous value or null if none.
+     */
+    public synchronized T put(Comparable key, T value)
+    {
+        HashTable<T> shard = getShard(key);
+        return (shard == null) ? null : shard.put(key, value);
+    }
+
+    /**
+     * Associates a value with a key only if the key is not already in its shard.
+     * @param key - key of the item
+     * @param value - value to store
+     * @return existing value or null if the value was added.
+     */
+    public synchronized T putIfAbsent(Comparable key, T value)
+    {
+        HashTable<T> shard = getShard(key);
+        return (shard == null) ? null : shard.putIfAbsent(key, value);
+    }
+
+    /**
+     * Returns the value for a key, computing and adding it first if the key is absent.
+     * @param key - key of the item
+     * @param fn - computes a value from the key
+     * @return existing or computed value.
+     */
+    public synchronized T computeIfAbsent(Comparable key, Function<Comparable, ? extends T> fn)
+    {
+        HashTable<T> shard = getShard(key);
+        return (shard == null) ? null : shard.computeIfAbsent(key, fn);
+    }
+
+    /**
+     * Computes a new value from a key and its current value (null if absent).
+     * @param key - key of the item
+     * @param fn - computes the new value from the key and current value
+     * @return new value or null if none.
+     */
+    public synchronized T compute(Comparable key, BiFunction<Comparable, ? super T, ? extends T> fn)
+    {
+        HashTable<T> shard = getShard(key);
+        return (shard == null) ? null : shard.compute(key, fn);
+    }
+
+    /**
+     * Adds the value if the key is absent, otherwise combines it with the current value.
+     * @param key - key of the item
+     * @param value - value to add or combine
+     * @param fn - combines the current value with the given value
+     * @return new value or null if none.
+     */
+    public synchronized T merge(Comparable key, T value, BiFunction<? super T, ? super T, ? extends T> fn)
+    {
+        HashTable<T> shard = getShard(key);
+        return (shard == null) ? null : shard.merge(key, value, fn);
+    }
+
+    /**
+     * Returns the number of items across all shards.
+     * @return number of items
+     */
+    public synchronized int size()
+    {
+        int total = 0;
+        for (HashTable<T> shard : shards.values())
+            total += shard.size();
+        return total;
+    }
+
+    /**
+     * Performs an action on every item in every shard.
+     * @param action - action to perform on each item
+     */
+    public synchronized void forEach(Consumer<KeyedItem<T>> action)
+    {
+        for (HashTable<T> shard : shards.values())
+            shard.forEach(action);
+    }
+
+    /**
+     * Prints the content of each shard.
+     */
+    public synchronized void printTable()
+    {
+        for (Map.Entry<String, HashTable<T>> entry : shards.entrySet()) {
+            System.out.println("Shard " + entry.getKey());
+            entry.getValue().printTable();
+        }
+    }
+
+    /**
+     * Prints the number of items held by each shard.
+     */
+    public synchronized void printDistribution()
+    {
+        for (Map.Entry<String, HashTable<T>> entry : shards.entrySet())
+            System.out.println(entry.getKey() + "\t" + entry.getValue().size());
+    }
+
+    /**
+     * @param args
+     */
+    public static void main(String[] args) {
+        ShardRouter<String> router = new ShardRouter<>(64);
+        router.addShard("A", new ChainingHashTable<String>(101));
+        router.addShard("B", new ProbingHashTable<String>(307));
+        router.addShard("C", new ChainingHashTable<String>(101));
+
+        for (int i=0; i < 300; i++) {
+            router.add(new KeyedItem<String>(i, "value" + i));
+        }
+
+        System.out.println("Distribution");
+        router.printDistribution();
+
+        System.out.println();
+        System.out.println("Add Shard D");
+        System.out.println("Moved " + router.addShard("D", new ChainingHashTable<String>(101)));
+        router.printDistribution();
+
+        System.out.println();
+        System.out.println("Remove Shard B");
+        System.out.println("Moved " + router.removeShard("B"));
+        router.printDistribution();
+
+        int found = 0;
+        for (int i=0; i < 300; i++) {
+            if (router.get(i) != null)
+                found++;
+        }
+        System.out.println();
+        System.out.println("Retrieved " + found + " of 300");
+    }
+
+}
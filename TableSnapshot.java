@@ -0,0 +1,464 @@
+/**
+ * Writes and reads a compact binary snapshot of a ProbingHashTable or ChainingHashTable.
+ *
+ * The table's slots are split into fixed-size ranges, and each range is written as one
+ * chunk holding a CRC-32 checksum of its payload.  Every entry stores the slot it occupies,
+ * so loading places items directly into a table of the same size without hashing or
+ * probing.  Deleted items in a probing table are written too, flagged as deleted, so
+ * that items that were probed past them can still be found after loading.  Writes
+ * stream one chunk at a time through an NIO channel.  Loads read chunks sequentially
+ * and hand each one to a worker thread for checking and decoding, so restore speed is
+ * limited by I/O.  Since chunks cover disjoint slot ranges, workers never touch the
+ * same slot or chain.
+ *
+ * Format (big-endian):
+ *   header: int magic, byte table type, int table size, int slots per chunk,
+ *           int CRC-32 of the preceding header bytes
+ *   chunk:  int first slot, int entry count, int payload length, int CRC-32, payload
+ *   entry:  int slot, byte deleted (0 or 1), key (key codec), value (value codec)
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+import java.util.zip.CRC32;
+
+public class TableSnapshot {
+
+    static final int MAGIC = 0x48545333; //"HTS3"
+    static final byte PROBING = 1;
+    static final byte CHAINING = 2;
+    static final int HEADER_BYTES = 17;
+    static final int CHUNK_HEADER_BYTES = 16;
+
+    /**
+     * Number of table slots covered by each chunk.
+     */
+    public static final int SLOTS_PER_CHUNK = 4096;
+
+    /**
+     * Largest chunk payload in bytes.  The payload length in a chunk header is not
+     * covered by the CRC, so it is checked against this before any memory is allocated.
+     */
+    public static final int MAX_CHUNK_BYTES = 64 * 1024 * 1024;
+
+    /**
+     * Largest table size, in slots, that a snapshot may hold.  The table is allocated
+     * from the size in the header, so the size is checked against this first.
+     */
+    public static final int MAX_TABLE_SIZE = 1 << 28;
+
+    /**
+     * Converts keys or values to and from bytes.
+     * @param <V> - type being converted
+     */
+    public interface Codec<V> {
+
+        /**
+         * Writes a value.
+         * @param value - value to write
+         * @param out - destination
+         */
+        void write(V value, DataOutput out) throws IOException;
+
+        /**
+         * Reads a value written by write.
+         * @param in - source
+         * @return value read
+         */
+        V read(DataInput in) throws IOException;
+    }
+
+    /**
+     * Codec for String values.
+     */
+    public static final Codec<String> STRING_CODEC = new Codec<String>() {
+        public void write(String value, DataOutput out) throws IOException {
+            out.writeUTF(value);
+        }
+
+        public String read(DataInput in) throws IOException {
+            return in.readUTF();
+        }
+    };
+
+    /**
+     * Codec for Integer values.
+     */
+    public static final Codec<Integer> INTEGER_CODEC = new Codec<Integer>() {
+        public void write(Integer value, DataOutput out) throws IOException {
+            out.writeInt(value);
+        }
+
+        public Integer read(DataInput in) throws IOException {
+            return in.readInt();
+        }
+    };
+
+    /**
+     * Codec for table keys, which may be Integers or Strings.  A leading tag byte
+     * records which.
+     */
+    public static final Codec<Comparable> KEY_CODEC = new Codec<Comparable>() {
+        public void write(Comparable key, DataOutput out) throws IOException {
+            if (key instanceof Integer) {
+                out.writeByte(0);
+                out.writeInt((Integer) key);
+            }
+            else if (key instanceof String) {
+                out.writeByte(1);
+                out.writeUTF((String) key);
+            }
+            else
+                throw new IOException("Invalid key: strings or integers only.");
+        }
+
+        public Comparable read(DataInput in) throws IOException {
+            byte tag = in.readByte();
+            if (tag == 0)
+                return in.readInt();
+            else if (tag == 1)
+                return in.readUTF();
+            else
+                throw new IOException("Invalid key tag: " + tag);
+        }
+    };
+
+    /**
+     * Writes a snapshot of a probing hash table.
+     * @param ht - table to write
+     * @param out - destination channel
+     * @param keyCodec - codec for keys
+     * @param valueCodec - codec for values
+     */
+    public static <T> void write(ProbingHashTable<T> ht, WritableByteChannel out,
+                                 Codec<Comparable> keyCodec, Codec<T> valueCodec) throws IOException
+    {
+        write(PROBING, ht.tableSize, (action, slot) -> ht.forEachInSlot(slot, action), out, keyCodec, valueCodec);
+    }
+
+    /**
+     * Writes a snapshot of a chaining hash table.
+     * @param ht - table to write
+     * @param out - destination channel
+     * @param keyCodec - codec for keys
+     * @param valueCodec - codec for values
+     */
+    public static <T> void write(ChainingHashTable<T> ht, WritableByteChannel out,
+                                 Codec<Comparable> keyCodec, Codec<T> valueCodec) throws IOException
+    {
+        write(CHAINING, ht.tableSize, (action, slot) -> ht.forEachInSlot(slot, action), out, keyCodec, valueCodec);
+    }
+
+    /**
+     * Reads a snapshot written from a probing hash table.
+     * @param in - source channel
+     * @param keyCodec - codec for keys
+     * @param valueCodec - codec for values
+     * @return restored table
+     */
+    public static <T> ProbingHashTable<T> readProbing(ReadableByteChannel in,
+                                                      Codec<Comparable> keyCodec, Codec<T> valueCodec) throws IOException
+    {
+        int tableSize = readHeader(in, PROBING);
+        ProbingHashTable<T> ht = new ProbingHashTable<>(tableSize);
+        ht.count = readChunks(in, tableSize, (item, slot) -> ht.restore(slot, item), keyCodec, valueCodec);
+        return ht;
+    }
+
+    /**
+     * Reads a snapshot written from a chaining hash table.
+     * @param in - source channel
+     * @param keyCodec - codec for keys
+     * @param valueCodec - codec for values
+     * @return restored table
+     */
+    public static <T> ChainingHashTable<T> readChaining(ReadableByteChannel in,
+                                                        Codec<Comparable> keyCodec, Codec<T> valueCodec) throws IOException
+    {
+        int tableSize = readHeader(in, CHAINING);
+        ChainingHashTable<T> ht = new ChainingHashTable<>(tableSize);
+        ht.count = readChunks(in, tableSize, (item, slot) -> ht.restore(slot, item), keyCodec, valueCodec);
+        return ht;
+    }
+
+    /**
+     * Writes the header followed by one chunk per range of slots.
+     * @param type - table type
+     * @param tableSize - number of slots in the table
+     * @param slots - visits the items stored in a slot
+     * @param out - destination channel
+     * @param keyCodec - codec for keys
+     * @param valueCodec - codec for values
+     */
+    static <T> void write(byte type, int tableSize, ObjIntConsumer<Consumer<KeyedItem<T>>> slots,
+                          WritableByteChannel out, Codec<Comparable> keyCodec, Codec<T> valueCodec) throws IOException
+    {
+        if (tableSize > MAX_TABLE_SIZE)
+            throw new IOException("Table size " + tableSize + " exceeds " + MAX_TABLE_SIZE + " slots.");
+
+        CRC32 crc = new CRC32();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).put(type).putInt(tableSize).putInt(SLOTS_PER_CHUNK);
+        crc.update(header.array(), 0, header.position());
+        header.putInt((int) crc.getValue()).flip();
+        writeFully(out, header);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        ByteBuffer chunkHeader = ByteBuffer.allocate(CHUNK_HEADER_BYTES);
+
+        for (int first=0; first < tableSize; first += SLOTS_PER_CHUNK) {
+            int last = Math.min(tableSize, first + SLOTS_PER_CHUNK);
+            int [] count = {0};
+            bytes.reset();
+
+            try {
+                for (int slot=first; slot < last; slot++) {
+                    int s = slot;
+                    slots.accept(item -> {
+                        try {
+                            data.writeInt(s);
+                            data.writeByte(item.isValid() ? 0 : 1);
+                            keyCodec.write(item.getKey(), data);
+                            valueCodec.write(item.item, data);
+                            count[0]++;
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }, slot);
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            data.flush();
+
+            byte [] payload = bytes.toByteArray();
+            if (payload.length > MAX_CHUNK_BYTES)
+                throw new IOException("Chunk at slot " + first + " exceeds " + MAX_CHUNK_BYTES + " bytes.");
+
+            crc.reset();
+            crc.update(payload);
+
+            chunkHeader.clear();
+            chunkHeader.putInt(first).putInt(count[0]).putInt(payload.length).putInt((int) crc.getValue()).flip();
+            writeFully(out, chunkHeader);
+            writeFully(out, ByteBuffer.wrap(payload));
+        }
+    }
+
+    /**
+     * Reads and validates the header.
+     * @param in - source channel
+     * @param type - expected table type
+     * @return table size
+     */
+    static int readHeader(ReadableByteChannel in, byte type) throws IOException
+    {
+        ByteBuffer header = readFully(in, HEADER_BYTES);
+
+        if (header.getInt() != MAGIC)
+            throw new IOException("Not a hash table snapshot.");
+        if (header.get() != type)
+            throw new IOException("Snapshot was written from a different table type.");
+
+        int tableSize = header.getInt();
+        if (header.getInt() != SLOTS_PER_CHUNK)
+            throw new IOException("Unsupported chunk size.");
+
+        CRC32 crc = new CRC32();
+        crc.update(header.array(), 0, header.position());
+        if ((int) crc.getValue() != header.getInt())
+            throw new IOException("Snapshot header failed CRC check.");
+
+        //The table is allocated from this size, so bound it before anything is allocated.
+        if ((tableSize <= 0) || (tableSize > MAX_TABLE_SIZE))
+            throw new IOException("Invalid table size: " + tableSize);
+
+        //When the channel's size is known, it must hold at least a header for every chunk.
+        long chunks = (tableSize + SLOTS_PER_CHUNK - 1) / SLOTS_PER_CHUNK;
+        if ((in instanceof SeekableByteChannel)
+                && (chunks * CHUNK_HEADER_BYTES > ((SeekableByteChannel) in).size() - ((SeekableByteChannel) in).position()))
+            throw new IOException("Table size " + tableSize + " is too large for the snapshot.");
+        return tableSize;
+    }
+
+    /**
+     * Reads every chunk, decoding each on a worker thread while the next one is read.
+     * @param in - source channel
+     * @param tableSize - number of slots in the table
+     * @param restore - places an item into a slot
+     * @param keyCodec - codec for keys
+     * @param valueCodec - codec for values
+     * @return number of valid (not deleted) items restored
+     */
+    static <T> int readChunks(ReadableByteChannel in, int tableSize, ObjIntConsumer<KeyedItem<T>> restore,
+                              Codec<Comparable> keyCodec, Codec<T> valueCodec) throws IOException
+    {
+        List<CompletableFuture<Integer>> tasks = new ArrayList<>();
+
+        for (int first=0; first < tableSize; first += SLOTS_PER_CHUNK) {
+            ByteBuffer chunkHeader = readFully(in, CHUNK_HEADER_BYTES);
+            int chunkFirst = chunkHeader.getInt();
+            int count = chunkHeader.getInt();
+            int length = chunkHeader.getInt();
+            int checksum = chunkHeader.getInt();
+
+            if ((chunkFirst != first) || (count < 0) || (length < 0) || (length > MAX_CHUNK_BYTES))
+                throw new IOException("Corrupt chunk header at slot " + first);
+
+            //When the channel's size is known, the payload must fit in what is left of it.
+            if ((in instanceof SeekableByteChannel)
+                    && (length > ((SeekableByteChannel) in).size() - ((SeekableByteChannel) in).position()))
+                throw new IOException("Chunk at slot " + first + " runs past the end of the snapshot.");
+
+            byte [] payload = readFully(in, length).array();
+            int last = Math.min(tableSize, first + SLOTS_PER_CHUNK);
+
+            tasks.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return decodeChunk(payload, checksum, count, chunkFirst, last, restore, keyCodec, valueCodec);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        }
+
+        try {
+            CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0])).join();
+
+            //Summed after join so the workers never share a counter.
+            int total = 0;
+            for (CompletableFuture<Integer> task : tasks)
+                total += task.join();
+            return total;
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException)
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Checks a chunk's CRC and places its entries into the table.
+     * @param payload - chunk payload
+     * @param checksum - expected CRC-32 of the payload
+     * @param count - number of entries in the chunk
+     * @param first - first slot covered by the chunk
+     * @param last - slot after the last one covered by the chunk
+     * @param restore - places an item into a slot
+     * @param keyCodec - codec for keys
+     * @param valueCodec - codec for values
+     * @return number of valid (not deleted) items restored
+     */
+    static <T> int decodeChunk(byte [] payload, int checksum, int count, int first, int last,
+                               ObjIntConsumer<KeyedItem<T>> restore,
+                               Codec<Comparable> keyCodec, Codec<T> valueCodec) throws IOException
+    {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if ((int) crc.getValue() != checksum)
+            throw new IOException("Snapshot chunk at slot " + first + " failed CRC check.");
+
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(payload));
+        int valid = 0;
+        for (int i=0; i < count; i++) {
+            int slot = data.readInt();
+            if ((slot < first) || (slot >= last))
+                throw new IOException("Slot " + slot + " outside of chunk at slot " + first);
+
+            boolean deleted = data.readByte() != 0;
+            Comparable key = keyCodec.read(data);
+            T value = valueCodec.read(data);
+
+            KeyedItem<T> item = new KeyedItem<T>(key, value);
+            if (deleted)
+                item.setInvalid();
+            else
+                valid++;
+            restore.accept(item, slot);
+        }
+        return valid;
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer to a channel.
+     */
+    static void writeFully(WritableByteChannel out, ByteBuffer buf) throws IOException
+    {
+        while (buf.hasRemaining())
+            out.write(buf);
+    }
+
+    /**
+     * Reads exactly length bytes from a channel.
+     * @return buffer positioned at the start of the bytes read
+     */
+    static ByteBuffer readFully(ReadableByteChannel in, int length) throws IOException
+    {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            if (in.read(buf) < 0)
+                throw new IOException("Unexpected end of snapshot.");
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * @param args
+     */
+    public static void main(String[] args) throws IOException {
+        int n = 100000;
+        ChainingHashTable<String> ht = new ChainingHashTable<>(65537);
+        for (int i=0; i < n; i++) {
+            ht.put(i, "value" + i);
+        }
+
+        Path file = Files.createTempFile("table", ".snapshot");
+        try {
+            long start = System.nanoTime();
+            try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                TableSnapshot.write(ht, out, KEY_CODEC, STRING_CODEC);
+            }
+            System.out.println("Wrote " + Files.size(file) + " bytes in "
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+
+            start = System.nanoTime();
+            ChainingHashTable<String> copy;
+            try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+                copy = TableSnapshot.readChaining(in, KEY_CODEC, STRING_CODEC);
+            }
+            System.out.println("Read in " + (System.nanoTime() - start) / 1000000 + " ms");
+
+            int found = 0;
+            for (int i=0; i < n; i++) {
+                if (("value" + i).equals(copy.get(i).item))
+                    found++;
+            }
+            System.out.println("Restored " + found + " of " + n);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+}
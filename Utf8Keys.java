@@ -0,0 +1,233 @@
+/**
+ * Hashes and compares UTF-8 encoded keys in place, without first building a String.
+ *
+ * The bytes are decoded on the fly into the same UTF-16 chars a String would hold, so
+ * sum and poly return the same values as HashFunctions.stringToInt and
+ * HashFunctions.stringToPolyInt would for the decoded string.  Malformed input is
+ * replaced with U+FFFD exactly as new String(bytes, UTF_8) does, so byte lookups reach
+ * the same keys as String lookups.
+ *
+ * Byte arrays and ByteBuffers share one implementation: exactly one of arr or buf is
+ * non-null, and indices are absolute positions in it.
+ */
+
+import java.nio.ByteBuffer;
+
+public class Utf8Keys {
+
+    static final int REPLACEMENT = 0xFFFD;
+
+    /**
+     * Sums the chars of a UTF-8 encoded string (see HashFunctions.stringToInt).
+     * @param buf - bytes holding the string
+     * @param offset - index of the first byte
+     * @param length - number of bytes
+     * @return an integer that represents the string.
+     */
+    public static int sum(byte [] buf, int offset, int length)
+    {
+        return sum(buf, null, offset, offset + length);
+    }
+
+    /**
+     * Sums the chars of the UTF-8 string between a buffer's position and limit.
+     * The buffer's position is not changed.
+     * @param buf - buffer holding the string
+     * @return an integer that represents the string.
+     */
+    public static int sum(ByteBuffer buf)
+    {
+        if (buf.hasArray())
+            return sum(buf.array(), null, buf.arrayOffset() + buf.position(), buf.arrayOffset() + buf.limit());
+        return sum(null, buf, buf.position(), buf.limit());
+    }
+
+    /**
+     * Computes the base 31 polynomial of a UTF-8 encoded string (see HashFunctions.stringToPolyInt).
+     * @param buf - bytes holding the string
+     * @param offset - index of the first byte
+     * @param length - number of bytes
+     * @return an integer that represents the string.
+     */
+    public static int poly(byte [] buf, int offset, int length)
+    {
+        return poly(buf, null, offset, offset + length);
+    }
+
+    /**
+     * Computes the base 31 polynomial of the UTF-8 string between a buffer's position
+     * and limit.  The buffer's position is not changed.
+     * @param buf - buffer holding the string
+     * @return an integer that represents the string.
+     */
+    public static int poly(ByteBuffer buf)
+    {
+        if (buf.hasArray())
+            return poly(buf.array(), null, buf.arrayOffset() + buf.position(), buf.arrayOffset() + buf.limit());
+        return poly(null, buf, buf.position(), buf.limit());
+    }
+
+    /**
+     * Tests whether a string equals a UTF-8 encoded string.
+     * @param str - string to compare
+     * @param buf - bytes holding the other string
+     * @param offset - index of the first byte
+     * @param length - number of bytes
+     * @return true if equal
+     */
+    public static boolean equals(String str, byte [] buf, int offset, int length)
+    {
+        return equals(str, buf, null, offset, offset + length);
+    }
+
+    /**
+     * Tests whether a string equals the UTF-8 string between a buffer's position and limit.
+     * The buffer's position is not changed.
+     * @param str - string to compare
+     * @param buf - buffer holding the other string
+     * @return true if equal
+     */
+    public static boolean equals(String str, ByteBuffer buf)
+    {
+        if (buf.hasArray())
+            return equals(str, buf.array(), null, buf.arrayOffset() + buf.position(), buf.arrayOffset() + buf.limit());
+        return equals(str, null, buf, buf.position(), buf.limit());
+    }
+
+    /**
+     * Tests whether a stored key matches a lookup key given either as chars or as UTF-8 bytes.
+     * @param str - stored key
+     * @param chars - lookup key as chars, or null if given as bytes
+     * @param arr - byte array holding the lookup key, or null
+     * @param buf - buffer holding the lookup key, or null
+     * @param start - index of the first byte
+     * @param end - index after the last byte
+     * @return true if equal
+     */
+    static boolean matches(String str, CharSequence chars, byte [] arr, ByteBuffer buf, int start, int end)
+    {
+        if (chars != null)
+            return str.contentEquals(chars);
+        return equals(str, arr, buf, start, end);
+    }
+
+    static int sum(byte [] arr, ByteBuffer buf, int start, int end)
+    {
+        int val = 0;
+
+        for (int i=start; i < end; ) {
+            int decoded = decode(arr, buf, i, end);
+            int cp = decoded >>> 3;
+            i += decoded & 7;
+
+            if (cp < Character.MIN_SUPPLEMENTARY_CODE_POINT)
+                val += cp;
+            else
+                val += Character.highSurrogate(cp) + Character.lowSurrogate(cp);
+        }
+        return val;
+    }
+
+    static int poly(byte [] arr, ByteBuffer buf, int start, int end)
+    {
+        int val = 0;
+
+        for (int i=start; i < end; ) {
+            int decoded = decode(arr, buf, i, end);
+            int cp = decoded >>> 3;
+            i += decoded & 7;
+
+            if (cp < Character.MIN_SUPPLEMENTARY_CODE_POINT)
+                val = 31 * val + cp;
+            else {
+                val = 31 * val + Character.highSurrogate(cp);
+                val = 31 * val + Character.lowSurrogate(cp);
+            }
+        }
+        return val;
+    }
+
+    static boolean equals(String str, byte [] arr, ByteBuffer buf, int start, int end)
+    {
+        int k = 0;
+
+        for (int i=start; i < end; ) {
+            int decoded = decode(arr, buf, i, end);
+            int cp = decoded >>> 3;
+            i += decoded & 7;
+
+            if (cp < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                if ((k >= str.length()) || (str.charAt(k++) != cp))
+                    return false;
+            }
+            else {
+                if ((k + 1 >= str.length())
+                        || (str.charAt(k++) != Character.highSurrogate(cp))
+                        || (str.charAt(k++) != Character.lowSurrogate(cp)))
+                    return false;
+            }
+        }
+        return k == str.length();
+    }
+
+    /**
+     * Decodes one code point starting at index i.  Overlong forms, surrogates and
+     * values past U+10FFFF are rejected the same way the JDK's decoder rejects them:
+     * the longest valid prefix of a sequence (at least one byte) becomes one U+FFFD,
+     * and an encoded surrogate becomes one U+FFFD for all three of its bytes.
+     * @return the code point shifted left 3 bits, combined with the number of bytes used.
+     */
+    static int decode(byte [] arr, ByteBuffer buf, int i, int end)
+    {
+        int b0 = byteAt(arr, buf, i);
+        if (b0 < 0x80)
+            return (b0 << 3) | 1;
+
+        //Sequence length and the allowed range of the second byte for each lead byte
+        int len, cp, lo = 0x80, hi = 0xbf;
+        if ((b0 >= 0xc2) && (b0 <= 0xdf)) {
+            len = 2;
+            cp = b0 & 0x1f;
+        }
+        else if ((b0 >= 0xe0) && (b0 <= 0xef)) {
+            len = 3;
+            cp = b0 & 0x0f;
+            if (b0 == 0xe0)
+                lo = 0xa0;  //overlong
+        }
+        else if ((b0 >= 0xf0) && (b0 <= 0xf4)) {
+            len = 4;
+            cp = b0 & 0x07;
+            if (b0 == 0xf0)
+                lo = 0x90;  //overlong
+            else if (b0 == 0xf4)
+                hi = 0x8f;  //past U+10FFFF
+        }
+        else
+            return (REPLACEMENT << 3) | 1;
+
+        for (int j=1; j < len; j++) {
+            if (i + j >= end)
+                return (REPLACEMENT << 3) | j;
+
+            int b = byteAt(arr, buf, i + j);
+            if ((b < lo) || (b > hi))
+                return (REPLACEMENT << 3) | j;
+
+            cp = (cp << 6) | (b & 0x3f);
+            lo = 0x80;
+            hi = 0xbf;
+        }
+
+        //Like the JDK, a complete encoded surrogate becomes a single U+FFFD.
+        if ((cp >= Character.MIN_SURROGATE) && (cp <= Character.MAX_SURROGATE))
+            return (REPLACEMENT << 3) | len;
+        return (cp << 3) | len;
+    }
+
+    static int byteAt(byte [] arr, ByteBuffer buf, int i)
+    {
+        return ((arr != null) ? arr[i] : buf.get(i)) & 0xff;
+    }
+
+}